@@ -0,0 +1,54 @@
+package system;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Quorum aggregation as done by Node.onGetItemResponse, and comparison of store values
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QuorumBenchmark {
+
+  private static final int N = 3; // Replicas, as kvstore.replication.n
+  private static final int R = 2; // Read quorum, as kvstore.replication.read-quorum
+
+  private StoreValue[] values;
+  private int i;
+
+  @Setup
+  public void setup() {
+    values = new StoreValue[N];
+    for (int j = 0; j < values.length; ++j) { values[j] = new StoreValue("value" + j, j); }
+  }
+
+  @Benchmark
+  public StoreValue quorumAggregation() {
+    PendingRequest.Get<StoreValue> req = new PendingRequest.Get<>(0, null, 1, R);
+    for (StoreValue v : values) {
+      req.quorum.inc(new StoreValue(v.getValue(), v.getVersion()));
+      if (req.quorum.reached()) { break; }
+    }
+    return Node.getFreshest(req.quorum.values);
+  }
+
+  @Benchmark
+  public int storeValueCompareTo() {
+    i = (i + 1) % values.length;
+    return values[i].compareTo(values[(i + 1) % values.length]);
+  }
+}
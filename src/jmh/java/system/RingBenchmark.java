@@ -0,0 +1,59 @@
+package system;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lookup of the nodes responsible of a key (Node.getInvolvedNodes) and rebuild of the ring on membership changes
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RingBenchmark {
+
+  private static final int N = 3; // Replicas, as kvstore.replication.n
+
+  @Param({ "5", "20", "100" })
+  public int ringSize;
+
+  @Param({ "0", "128" })
+  public int vnodes;
+
+  private List<Integer> ids;
+  private Ring ring;
+  private int key;
+
+  @Setup
+  public void setup() {
+    ids = new ArrayList<>();
+    for (int i = 0; i < ringSize; ++i) { ids.add((i + 1) * 10); }
+    ring = new Ring(ids, N, vnodes);
+  }
+
+  @Benchmark
+  public int[] getInvolvedNodes() {
+    key = (key + 7) % (ringSize * 10 + 10);
+    return ring.getInvolvedNodes(key);
+  }
+
+  @Benchmark
+  public Ring rebuild() {
+    return new Ring(ids, N, vnodes);
+  }
+}
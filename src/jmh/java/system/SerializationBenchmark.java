@@ -0,0 +1,134 @@
+package system;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import com.typesafe.config.ConfigFactory;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serialization of the node messages, Java serialization against NodeSerializer (a partition transfer chunk and the
+ * messages of a single-key request); the size of the messages is reported as a secondary result
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+
+  @Param({ "java", "binary" })
+  public String codec;
+
+  @Param({ "100", "10000" })
+  public int items;
+
+  private ActorSystem system;
+  private NodeSerializer serializer;
+  private Node.TransferChunk transferChunk;
+  private Node.GetItem getItem;
+  private Node.GetItemResponse getItemResponse;
+  private Node.UpdateItem updateItem;
+  private byte[] transferChunkBytes;
+
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  @State(Scope.Thread)
+  public static class Size {
+    public long bytes;
+    @Setup(Level.Iteration)
+    public void reset() {
+      bytes = 0;
+    }
+  }
+
+  @Setup
+  public void setup() throws Exception {
+    system = ActorSystem.create("bench", ConfigFactory.parseString("akka.log-dead-letters = off"));
+    serializer = new NodeSerializer((ExtendedActorSystem) system);
+    int[] keys = new int[items];
+    StoreValue[] values = new StoreValue[items];
+    for (int key = 0; key < items; ++key) {
+      keys[key] = key;
+      values[key] = new StoreValue("value" + key, key % 5);
+    }
+    transferChunk = new Node.TransferChunk(0, 0, items, PartitionTransfer.KIND.ITEMS, keys, values, true);
+    getItem = new Node.GetItem(1234, 5678, PendingRequest.ACT.GET);
+    getItemResponse = new Node.GetItemResponse(1234, new StoreValue("value5678", 3));
+    updateItem = new Node.UpdateItem(1234, 5678, new StoreValue("value5678", 4));
+    transferChunkBytes = serialize(transferChunk);
+  }
+
+  @TearDown
+  public void tearDown() {
+    system.terminate();
+  }
+
+  private byte[] serialize(Serializable m) throws IOException {
+    if (codec.equals("binary")) { return serializer.toBinary(m); }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(m);
+    }
+    return bytes.toByteArray();
+  }
+
+  private Object deserialize(byte[] bytes, Object m) throws Exception {
+    if (codec.equals("binary")) { return serializer.fromBinary(bytes, serializer.manifest(m)); }
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+      return in.readObject();
+    }
+  }
+
+  private byte[] measure(Serializable m, Size size) throws IOException {
+    byte[] bytes = serialize(m);
+    size.bytes = bytes.length;
+    return bytes;
+  }
+
+  @Benchmark
+  public byte[] transferChunk(Size size) throws IOException {
+    return measure(transferChunk, size);
+  }
+
+  @Benchmark
+  public Object transferChunkDecode() throws Exception {
+    return deserialize(transferChunkBytes, transferChunk);
+  }
+
+  @Benchmark
+  public byte[] getItem(Size size) throws IOException {
+    return measure(getItem, size);
+  }
+
+  @Benchmark
+  public byte[] getItemResponse(Size size) throws IOException {
+    return measure(getItemResponse, size);
+  }
+
+  @Benchmark
+  public byte[] updateItem(Size size) throws IOException {
+    return measure(updateItem, size);
+  }
+}
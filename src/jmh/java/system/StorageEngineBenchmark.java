@@ -0,0 +1,70 @@
+package system;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Point reads and writes of the storage engines over large stores
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StorageEngineBenchmark {
+
+  @Param({ "memory", "offheap", "lsm" })
+  public String engine;
+
+  @Param({ "1000000" })
+  public int storeSize;
+
+  private StorageEngine store;
+  private Path dir;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    dir = Files.createTempDirectory("kvstore-bench");
+    switch (engine) {
+      case "lsm": store = new LsmStorageEngine(dir, 65536, 4); break;
+      case "offheap": store = new OffHeapStorageEngine(0.5); break;
+      default: store = new MemoryStorageEngine();
+    }
+    for (int key = 0; key < storeSize; ++key) { store.put(key, new StoreValue("value" + key, 0)); }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    store.clear();
+    store.close();
+  }
+
+  @Benchmark
+  public StoreValue get() {
+    return store.get(ThreadLocalRandom.current().nextInt(storeSize));
+  }
+
+  @Benchmark
+  public void put() {
+    int key = ThreadLocalRandom.current().nextInt(storeSize);
+    store.put(key, new StoreValue("value" + key, 1));
+  }
+}
@@ -0,0 +1,57 @@
+package system;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Selection of the items to hand over to a node (Node.getItemsByNode) over large stores
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StoreBenchmark {
+
+  private static final int N = 3; // Replicas, as kvstore.replication.n
+
+  @Param({ "10000", "1000000" })
+  public int storeSize;
+
+  private StorageEngine store;
+  private Ring ring;
+
+  @Setup
+  public void setup() {
+    List<Integer> ids = new ArrayList<>();
+    for (int i = 1; i <= 10; ++i) { ids.add(i * storeSize / 10); }
+    ring = new Ring(ids, N);
+    store = new MemoryStorageEngine();
+    for (int key = 0; key < storeSize; ++key) { store.put(key, new StoreValue("value" + key, key % 5)); }
+  }
+
+  @Benchmark
+  public Map<Integer, StoreValue> getItemsByExistingNode() {
+    return Node.getItemsByNode(store, ring, storeSize / 2);
+  }
+
+  @Benchmark
+  public Map<Integer, StoreValue> getItemsByJoiningNode() {
+    return Node.getItemsByNode(store, ring, storeSize / 2 + 1);
+  }
+}
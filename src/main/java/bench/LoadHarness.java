@@ -0,0 +1,304 @@
+package bench;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntSupplier;
+
+import akka.actor.AbstractActorWithTimers;
+import akka.actor.ActorRef;
+import akka.actor.NoSerializationVerificationNeeded;
+import akka.actor.Props;
+import akka.pattern.Patterns;
+import client.KeyValueClient;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import system.Histogram;
+import system.KeyValStoreSystem;
+import system.Node;
+import system.NodeHooks;
+
+/**
+ * Headless load generator: client actors issue Get/Update requests at a target rate (open loop)
+ * and the harness reports throughput, latency percentiles and failures for every rate.
+ * Usage: LoadHarness [--nodes 5] [--clients 4] [--keys 1000] [--dist uniform|zipfian] [--reads 0.9]
+ *                    [--rates 1000,2000,4000] [--warmup 2] [--duration 10] [--batch 1] [--remote address]
+ *                    [--consistency DEFAULT|ONE|QUORUM|ALL]
+ * With a batch greater than one every operation is a MultiGet/MultiUpdate of that many keys (at the default
+ * consistency level).
+ * With a remote address (of a main.RemoteNode process) the nodes are not created: the clients load the nodes of
+ * the store that node belongs to, over Artery.
+ */
+public class LoadHarness {
+
+  private static final Duration TICK = Duration.ofMillis(1);
+  private static final Duration ASK_TIMEOUT = Duration.ofSeconds(3);
+
+  /* -------------------------------------- CLIENT ---------------------------------------- */
+
+  // Messages local to the harness, never serialized
+
+  static class SetRate implements NoSerializationVerificationNeeded {
+    public final double opsPerSecond;
+    public SetRate(double opsPerSecond) {
+      this.opsPerSecond = opsPerSecond;
+    }
+  }
+
+  static class Tick implements NoSerializationVerificationNeeded {
+    public static final Tick INSTANCE = new Tick();
+  }
+
+  static class Done implements NoSerializationVerificationNeeded {
+    public final long start;
+    public final boolean get;
+    public final Object response;
+    public Done(long start, boolean get, Object response) {
+      this.start = start;
+      this.get = get;
+      this.response = response;
+    }
+  }
+
+  static class GetResult implements NoSerializationVerificationNeeded {}
+
+  static class Result implements NoSerializationVerificationNeeded {
+    public final Histogram gets, updates;
+    public final long ok, errors, noReply;
+    public Result(Histogram gets, Histogram updates, long ok, long errors, long noReply) {
+      this.gets = gets;
+      this.updates = updates;
+      this.ok = ok;
+      this.errors = errors;
+      this.noReply = noReply;
+    }
+  }
+
+  static class LoadClient extends AbstractActorWithTimers {
+    private final KeyValueClient client;  // Pipelines all the requests of this load client
+    private final List<ActorRef> nodes;
+    private final IntSupplier keys;
+    private final double reads;
+    private final int batch;
+    private final Node.CONSISTENCY consistency;
+    private final Histogram gets, updates;   // Latencies (microseconds) of the successful requests
+    private long ok, errors, noReply;
+    private double opsPerNano, credit;
+    private long lastTick;
+
+    public LoadClient(List<ActorRef> nodes, IntSupplier keys, double reads, int batch, Node.CONSISTENCY consistency) {
+      // The requests not answered within the timeout of the coordinators count as no reply
+      Duration timeout = getContext().getSystem().settings().config().getDuration("kvstore.replication.timeout");
+      this.client = new KeyValueClient(getContext().getSystem(), timeout.plusSeconds(1));
+      this.nodes = nodes;
+      this.keys = keys;
+      this.reads = reads;
+      this.batch = batch;
+      this.consistency = consistency;
+      this.gets = new Histogram();
+      this.updates = new Histogram();
+    }
+
+    void onSetRate(SetRate msg) {
+      opsPerNano = msg.opsPerSecond / 1e9;
+      credit = 0;
+      lastTick = System.nanoTime();
+      if (opsPerNano > 0) { getTimers().startTimerAtFixedRate(Tick.INSTANCE, Tick.INSTANCE, TICK); }
+      else { getTimers().cancel(Tick.INSTANCE); }
+    }
+
+    void onTick(Tick msg) {
+      long now = System.nanoTime();
+      credit += (now - lastTick) * opsPerNano;
+      lastTick = now;
+      for (; credit >= 1; credit--) { send(); }
+    }
+
+    void send() {
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      ActorRef coordinator = nodes.get(random.nextInt(nodes.size()));
+      boolean get = random.nextDouble() < reads;
+      long start = System.nanoTime();
+      CompletionStage<?> response;
+      if (batch > 1) {
+        int[] batchKeys = new int[batch];
+        Map<Integer, String> values = new HashMap<>();
+        for (int i = 0; i < batch; ++i) {
+          batchKeys[i] = keys.getAsInt();
+          values.put(batchKeys[i], "v" + random.nextInt(1000));
+        }
+        response = get ? client.multiGet(coordinator, batchKeys) : client.multiUpdate(coordinator, values);
+      } else {
+        int key = keys.getAsInt();
+        response = get ? client.get(coordinator, key, consistency, null) : client.update(coordinator, key, "v" + random.nextInt(1000), consistency, null);
+      }
+      ActorRef self = getSelf();
+      response.whenComplete((value, e) -> self.tell(new Done(start, get, e instanceof CompletionException ? e.getCause() : e == null ? value : e), ActorRef.noSender()));
+    }
+
+    void onDone(Done msg) {
+      if (msg.response instanceof Node.MultiFeedback) {
+        if (Arrays.asList(((Node.MultiFeedback) msg.response).statuses).contains(Node.STATUS.ERROR)) { errors++; return; }
+      } else if (msg.response instanceof KeyValueClient.RequestFailedException) {
+        errors++;
+        return;
+      } else if (msg.response instanceof Throwable) {
+        noReply++;
+        return;
+      }
+      ok++;
+      (msg.get ? gets : updates).record((System.nanoTime() - msg.start) / 1000);
+    }
+
+    @Override
+    public void postStop() {
+      client.close();
+    }
+
+    void onGetResult(GetResult msg) {
+      getSender().tell(new Result(gets.copy(), updates.copy(), ok, errors, noReply), getSelf());
+      gets.reset();
+      updates.reset();
+      ok = errors = noReply = 0;
+    }
+
+    @Override
+    public Receive createReceive() {
+      return receiveBuilder()
+        .match(SetRate.class, this::onSetRate)
+        .match(Tick.class, this::onTick)
+        .match(Done.class, this::onDone)
+        .match(GetResult.class, this::onGetResult)
+        .build();
+    }
+  }
+
+  /* -------------------------------------- HARNESS ---------------------------------------- */
+
+  static Map<String, String> parseOptions(String[] args) {
+    Map<String, String> options = new HashMap<>();
+    options.put("nodes", "5");
+    options.put("clients", "4");
+    options.put("keys", "1000");
+    options.put("dist", "uniform");
+    options.put("reads", "0.9");
+    options.put("rates", "1000");
+    options.put("warmup", "2");
+    options.put("duration", "10");
+    options.put("batch", "1");
+    options.put("consistency", "DEFAULT");
+    options.put("remote", "");
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      if (!args[i].startsWith("--") || !options.containsKey(args[i].substring(2))) {
+        throw new IllegalArgumentException("Unknown option " + args[i]);
+      }
+      options.put(args[i].substring(2), args[i + 1]);
+    }
+    return options;
+  }
+
+  static Result collect(List<ActorRef> clients) throws Exception {
+    Histogram gets = new Histogram(), updates = new Histogram();
+    long ok = 0, errors = 0, noReply = 0;
+    for (ActorRef client : clients) {
+      Result r = (Result) Patterns.ask(client, new GetResult(), ASK_TIMEOUT).toCompletableFuture().get();
+      gets.merge(r.gets);
+      updates.merge(r.updates);
+      ok += r.ok;
+      errors += r.errors;
+      noReply += r.noReply;
+    }
+    return new Result(gets, updates, ok, errors, noReply);
+  }
+
+  static long[] collectStats(List<ActorRef> nodes) throws Exception {
+    long[] counters = new long[5];
+    for (ActorRef node : nodes) {
+      Node.Stats s = (Node.Stats) Patterns.ask(node, new Node.GetStats(), ASK_TIMEOUT).toCompletableFuture().get();
+      counters[0] += s.ignoredGets;
+      counters[1] += s.timeouts;
+      counters[2] += s.readRepairs;
+      counters[3] += s.gets;
+      counters[4] += s.hedges;
+    }
+    return counters;
+  }
+
+  static String latencies(Histogram h) {
+    return String.format("p50 %8.3f   p99 %8.3f   p999 %8.3f   max %8.3f ms  (%d ops)",
+      h.getPercentile(50) / 1e3, h.getPercentile(99) / 1e3, h.getPercentile(99.9) / 1e3, h.getMax() / 1e3, h.getCount());
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = parseOptions(args);
+    int nNodes = Integer.parseInt(options.get("nodes"));
+    int nClients = Integer.parseInt(options.get("clients"));
+    int nKeys = Integer.parseInt(options.get("keys"));
+    double reads = Double.parseDouble(options.get("reads"));
+    int warmup = Integer.parseInt(options.get("warmup"));
+    int duration = Integer.parseInt(options.get("duration"));
+    int batch = Integer.parseInt(options.get("batch"));
+    Node.CONSISTENCY consistency = Node.CONSISTENCY.valueOf(options.get("consistency"));
+    IntSupplier keys = options.get("dist").equals("zipfian")
+      ? new ZipfianGenerator(nKeys)
+      : () -> ThreadLocalRandom.current().nextInt(nKeys);
+
+    String remote = options.get("remote");
+
+    // Logging would dominate the measures
+    Config config = ConfigFactory.parseString("kvstore.log.level = OFF").withFallback(ConfigFactory.load());
+    if (!remote.isEmpty()) { config = ConfigFactory.parseString("akka.actor.provider = remote").withFallback(config); }
+    KeyValStoreSystem system = new KeyValStoreSystem(config);
+    try {
+      List<ActorRef> nodes = new ArrayList<>();
+      if (remote.isEmpty()) {
+        for (int i = 1; i <= nNodes; ++i) {
+          system.createNode(i * 10, 10, NodeHooks.NONE);
+          nodes.add(system.getNode(i * 10));
+          Thread.sleep(200);
+        }
+      } else {
+        // Drive the nodes already running in other processes (main.RemoteNode), found through the given one
+        nodes.addAll(system.discoverNodes(remote).values());
+        nNodes = nodes.size();
+      }
+      List<ActorRef> clients = new ArrayList<>();
+      for (int i = 0; i < nClients; ++i) {
+        clients.add(system.getActorSystem().actorOf(Props.create(LoadClient.class, () -> new LoadClient(nodes, keys, reads, batch, consistency)), "LoadClient_" + i));
+      }
+
+      System.out.printf("%d nodes, %d clients, %d keys (%s), %.0f%% reads, %d keys per operation, consistency %s%n",
+        nNodes, nClients, nKeys, options.get("dist"), reads * 100, batch, consistency);
+      for (String rate : options.get("rates").split(",")) {
+        double target = Double.parseDouble(rate);
+        for (ActorRef client : clients) { client.tell(new SetRate(target / nClients), ActorRef.noSender()); }
+        Thread.sleep(warmup * 1000L);
+        collect(clients);
+        long[] statsBefore = collectStats(nodes);
+        Thread.sleep(duration * 1000L);
+        Result r = collect(clients);
+        long[] statsAfter = collectStats(nodes);
+
+        System.out.printf("%nTarget %.0f ops/s: throughput %.0f ops/s (ok %d, error %d, no reply %d)%n",
+          target, (double) r.ok / duration, r.ok, r.errors, r.noReply);
+        System.out.println("  GET     " + latencies(r.gets));
+        System.out.println("  UPDATE  " + latencies(r.updates));
+        System.out.println("  nodes   ignored GETs " + (statsAfter[0] - statsBefore[0]) + ", coordinator timeouts " + (statsAfter[1] - statsBefore[1])
+          + ", read repairs " + (statsAfter[2] - statsBefore[2]));
+        long gets = statsAfter[3] - statsBefore[3], hedges = statsAfter[4] - statsBefore[4];
+        System.out.printf("  nodes   hedged GETs %d (%.2f%%)%n", hedges, gets == 0 ? 0 : 100.0 * hedges / gets);
+      }
+
+      for (ActorRef client : clients) { client.tell(new SetRate(0), ActorRef.noSender()); }
+    } finally {
+      // Also on failure: a remote system left running would keep the JVM alive
+      system.getActorSystem().terminate();
+    }
+  }
+}
@@ -0,0 +1,85 @@
+package bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the store against the number of node processes: for every count, starts that many main.RemoteNode
+ * JVMs on localhost (one node each, joined through the first one) and runs LoadHarness against them over Artery.
+ * Counts below the write/read quorum leave every request failing, so they start at 3.
+ * Usage: RemoteScaling [--processes 3,4,6] [LoadHarness options], e.g.
+ *        RemoteScaling --processes 3,6,12 --rates 2000,8000,32000 --duration 10
+ */
+public class RemoteScaling {
+
+  private static final int BASE_PORT = 25520;
+  private static final int JOIN_DELAY = 2000;        // Time (ms) given to each node to join before starting the next one
+  private static final long START_TIMEOUT = 30000;   // Time (ms) a node process has to start
+
+  static Process startNode(int id, int port, String seed) throws IOException {
+    List<String> cmd = new ArrayList<>(Arrays.asList(
+      System.getProperty("java.home") + "/bin/java", "-Dkvstore.log.level=OFF", "-cp", System.getProperty("java.class.path"),
+      "main.RemoteNode", Integer.toString(id), Integer.toString(port)));
+    if (seed != null) { cmd.add(seed); }
+    Process p = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+    // The output is drained by a thread, which signals the node is up: a node printing nothing cannot hold the caller
+    CountDownLatch started = new CountDownLatch(1);
+    Thread drain = new Thread(() -> {
+      try (BufferedReader out = new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8))) {
+        String line;
+        while ((line = out.readLine()) != null) {
+          if (line.startsWith("Node " + id + " started")) { started.countDown(); }
+        }
+      } catch (IOException e) {
+        // Process stopped
+      }
+    });
+    drain.setDaemon(true);
+    drain.start();
+    try {
+      if (!started.await(START_TIMEOUT, TimeUnit.MILLISECONDS) || !p.isAlive()) {
+        p.destroy();
+        throw new IOException("Node " + id + " did not start within " + START_TIMEOUT + "ms");
+      }
+    } catch (InterruptedException e) {
+      p.destroy();
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while starting node " + id);
+    }
+    return p;
+  }
+
+  public static void main(String[] args) throws Exception {
+    String processes = "3,4,6";
+    List<String> harnessArgs = new ArrayList<>();
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      if (args[i].equals("--processes")) { processes = args[i + 1]; }
+      else { harnessArgs.addAll(Arrays.asList(args[i], args[i + 1])); }
+    }
+    String seed = "akka://distr-key-val-system@127.0.0.1:" + BASE_PORT;
+    harnessArgs.addAll(Arrays.asList("--remote", seed));
+
+    for (String count : processes.split(",")) {
+      int n = Integer.parseInt(count);
+      List<Process> nodes = new ArrayList<>();
+      try {
+        for (int i = 0; i < n; ++i) {
+          nodes.add(startNode((i + 1) * 10, BASE_PORT + i, i == 0 ? null : seed));
+          Thread.sleep(JOIN_DELAY);
+        }
+        System.out.println("\n===== " + n + " node processes =====");
+        LoadHarness.main(harnessArgs.toArray(new String[0]));
+      } finally {
+        for (Process p : nodes) { p.destroy(); }
+        for (Process p : nodes) { p.waitFor(); }
+      }
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.typesafe.config.ConfigFactory;
+import system.Ring;
+
+/**
+ * Reports how evenly the keys are spread over the nodes with the plain and the hashed placement,
+ * and from how many peers a joining node receives its items.
+ * Usage: RingSkew [keys] [vnodes] [joiningId] [nodeIds...]
+ */
+public class RingSkew {
+
+  private static final int N = ConfigFactory.load().getInt("kvstore.replication.n");
+
+  static void report(String name, List<Integer> ids, int keys, int vnodes, int joiningId) {
+    Ring ring = new Ring(ids, N, vnodes);
+    Map<Integer, Integer> owned = new TreeMap<>();
+    for (Integer id : ids) { owned.put(id, 0); }
+    for (int key = 0; key < keys; ++key) {
+      for (int id : ring.getInvolvedNodes(key)) {
+        owned.merge(id, 1, Integer::sum);
+      }
+    }
+    int max = owned.values().stream().max(Integer::compare).orElse(0);
+    int min = owned.values().stream().min(Integer::compare).orElse(0);
+
+    // Items a joining node gets, grouped by the previous replica it can fetch them from
+    Ring joined = ring.with(joiningId);
+    Map<Integer, Integer> donors = new TreeMap<>();
+    for (int key = 0; key < keys; ++key) {
+      if (Ring.contains(joined.getInvolvedNodes(key), joiningId)) {
+        for (int id : ring.getInvolvedNodes(key)) {
+          donors.merge(id, 1, Integer::sum);
+        }
+      }
+    }
+
+    System.out.println(name);
+    System.out.println("  keys per node:    " + owned);
+    System.out.printf("  max/min:          %d/%d (%.2fx)%n", max, min, min == 0 ? Double.POSITIVE_INFINITY : (double) max / min);
+    System.out.println("  join of node " + joiningId + ": " + donors + " keys held by each donor");
+  }
+
+  public static void main(String[] args) {
+    int keys = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+    int vnodes = args.length > 1 ? Integer.parseInt(args[1]) : 128;
+    int joiningId = args.length > 2 ? Integer.parseInt(args[2]) : 25;
+    List<Integer> ids = new ArrayList<>();
+    for (int i = 3; i < args.length; ++i) { ids.add(Integer.parseInt(args[i])); }
+    if (ids.isEmpty()) { ids.addAll(List.of(5, 10, 20, 30, 40)); }
+
+    System.out.println(keys + " sequential keys, nodes " + ids + ", " + N + " replicas");
+    report("Keys placed on node ids", ids, keys, 0, joiningId);
+    report("Hashed keys, " + vnodes + " virtual nodes per node", ids, keys, vnodes, joiningId);
+  }
+}
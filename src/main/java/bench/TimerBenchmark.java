@@ -0,0 +1,129 @@
+package bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import akka.actor.ActorRef;
+import client.KeyValueClient;
+import system.Histogram;
+import system.KeyValStoreSystem;
+import system.NodeHooks;
+
+/**
+ * End-to-end latency of Get and Update requests through the client, with the timeouts delivered as actor timers
+ * and with the former thread-per-timeout load: the nodes no longer start threads, so for every request the
+ * benchmark starts the threads the nodes used to (one for the request timeout, two for each replica asked),
+ * sleeping for the timeout T. Both modes get the same warm-up, then run in alternating order for several rounds, so
+ * that neither is always measured first. Reports the peak number of live threads and the latency percentiles.
+ * Usage: TimerBenchmark [opsPerSecond] [seconds] [rounds]
+ */
+public class TimerBenchmark {
+
+  private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+  private static final int NODES = 5;
+  private static final int KEYS = 1000;
+  private static final double READS = 0.9;
+
+  static class Latencies {
+    final Histogram gets = new Histogram(), updates = new Histogram();  // Microseconds
+    final AtomicLong failed = new AtomicLong();
+    int peakThreads;
+
+    synchronized void record(boolean get, long micros) {
+      (get ? gets : updates).record(micros);
+    }
+
+    synchronized void merge(Latencies l) {
+      gets.merge(l.gets);
+      updates.merge(l.updates);
+      failed.addAndGet(l.failed.get());
+      peakThreads = Math.max(peakThreads, l.peakThreads);
+    }
+  }
+
+  static void startLegacyThreads(int count, long delay) {
+    for (int i = 0; i < count; i++) {
+      new Thread(() -> {
+        try { Thread.sleep(delay); } catch (InterruptedException e) { /* Benchmark over */ }
+      }).start();
+    }
+  }
+
+  static Latencies run(KeyValStoreSystem system, KeyValueClient client, int rate, int seconds, int legacyThreads, long timeout)
+      throws InterruptedException {
+    Latencies latencies = new Latencies();
+    threads.resetPeakThreadCount();
+    long interval = 1_000_000_000L / rate;
+    long start = System.nanoTime(), end = start + seconds * 1_000_000_000L;
+    for (long next = start; next < end; next += interval) {
+      // Parking, not spinning: a spinning sender holds a core the nodes need, until it is preempted
+      for (long now = System.nanoTime(); now < next; now = System.nanoTime()) { LockSupport.parkNanos(next - now); }
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      ActorRef coordinator = system.getNode((random.nextInt(NODES) + 1) * 10);
+      int key = random.nextInt(KEYS);
+      boolean get = random.nextDouble() < READS;
+      long sent = System.nanoTime();
+      CompletionStage<?> response = get ? client.get(coordinator, key) : client.update(coordinator, key, "v" + random.nextInt(1000));
+      response.whenComplete((value, e) -> {
+        if (e == null) { latencies.record(get, (System.nanoTime() - sent) / 1000); }
+        else { latencies.failed.incrementAndGet(); }
+      });
+      if (legacyThreads > 0) { startLegacyThreads(legacyThreads, timeout); }
+    }
+    Thread.sleep(timeout + 1000); // Last answers and timeouts
+    latencies.peakThreads = threads.getPeakThreadCount();
+    return latencies;
+  }
+
+  static void report(String name, Latencies l) {
+    System.out.printf("%-16s peak threads: %6d   failed: %d%n", name, l.peakThreads, l.failed.get());
+    System.out.printf("  GET     p50 %8.3f   p99 %8.3f   max %8.3f ms  (%d ops)%n",
+      l.gets.getPercentile(50) / 1e3, l.gets.getPercentile(99) / 1e3, l.gets.getMax() / 1e3, l.gets.getCount());
+    System.out.printf("  UPDATE  p50 %8.3f   p99 %8.3f   max %8.3f ms  (%d ops)%n",
+      l.updates.getPercentile(50) / 1e3, l.updates.getPercentile(99) / 1e3, l.updates.getMax() / 1e3, l.updates.getCount());
+  }
+
+  public static void main(String[] args) throws Exception {
+    int rate = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+    int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+
+    Config config = ConfigFactory.parseString("kvstore.log.level = OFF").withFallback(ConfigFactory.load());
+    KeyValStoreSystem system = new KeyValStoreSystem(config);
+    for (int i = 1; i <= NODES; ++i) {
+      system.createNode(i * 10, 10, NodeHooks.NONE);
+      Thread.sleep(200);
+    }
+    KeyValueClient client = new KeyValueClient(system);
+    long timeout = config.getDuration("kvstore.replication.timeout").toMillis();
+    int legacyThreads = 1 + 2 * config.getInt("kvstore.replication.n");
+
+    // The same warm-up for both modes
+    run(system, client, rate, 2, 0, timeout);
+    run(system, client, rate, 2, legacyThreads, timeout);
+    System.out.println(rate + " ops/s for " + seconds + " s, " + NODES + " nodes, " + rounds + " rounds");
+
+    Latencies timers = new Latencies(), legacy = new Latencies();
+    for (int round = 0; round < rounds; round++) {
+      for (int i = 0; i < 2; i++) {
+        boolean actorTimers = (i == 0) == (round % 2 == 0);   // Alternating which mode goes first
+        Latencies l = run(system, client, rate, seconds, actorTimers ? 0 : legacyThreads, timeout);
+        report((actorTimers ? "actor timers" : "thread/timeout") + " #" + (round + 1), l);
+        (actorTimers ? timers : legacy).merge(l);
+      }
+    }
+    System.out.println("All rounds");
+    report("actor timers", timers);
+    report("thread/timeout", legacy);
+
+    client.close();
+    system.getActorSystem().terminate();
+  }
+}
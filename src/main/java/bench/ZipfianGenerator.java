@@ -0,0 +1,43 @@
+package bench;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntSupplier;
+
+/**
+ * Zipfian distribution over [0, items), as in YCSB (Gray et al., "Quickly generating billion-record synthetic databases").
+ * Key 0 is the most popular one.
+ */
+public class ZipfianGenerator implements IntSupplier {
+
+  public static final double THETA = 0.99;
+
+  private final int items;
+  private final double alpha, zetan, eta, theta;
+
+  public ZipfianGenerator (int items) {
+    this(items, THETA);
+  }
+
+  public ZipfianGenerator (int items, double theta) {
+    this.items = items;
+    this.theta = theta;
+    this.zetan = zeta(items, theta);
+    this.alpha = 1.0 / (1.0 - theta);
+    this.eta = (1 - Math.pow(2.0 / items, 1 - theta)) / (1 - zeta(2, theta) / zetan);
+  }
+
+  private static double zeta (int n, double theta) {
+    double sum = 0;
+    for (int i = 1; i <= n; ++i) { sum += 1 / Math.pow(i, theta); }
+    return sum;
+  }
+
+  @Override
+  public int getAsInt () {
+    double u = ThreadLocalRandom.current().nextDouble();
+    double uz = u * zetan;
+    if (uz < 1) { return 0; }
+    if (uz < 1 + Math.pow(0.5, theta)) { return 1; }
+    return Math.min(items - 1, (int) (items * Math.pow(eta * u - eta + 1, alpha)));
+  }
+}
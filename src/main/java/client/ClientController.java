@@ -14,7 +14,6 @@ import javafx.scene.control.ChoiceBox;
 import javafx.scene.control.TextField;
 import javafx.scene.text.Text;
 import javafx.scene.text.TextFlow;
-import system.KeyValStoreSystem;
 
 public class ClientController {
 
@@ -22,7 +21,7 @@ public class ClientController {
     (new Alert(AlertType.ERROR, error, ButtonType.OK)).showAndWait();
   }
 
-  private KeyValStoreSystem system;
+  private FxKeyValStoreSystem system;
   private ObservableList<String> feedbacks;
   private ActorRef clientActor;
   private int id;
@@ -59,7 +58,7 @@ public class ClientController {
     
     if (err == null) {
       addFeedback("Requesting get(" + key + ") to node " + coordinatorId);
-      system.get(clientActor, id, coordinatorId, key);
+      system.get(clientActor, coordinatorId, key);
     } else {
       showErrorDialog(err);
     }
@@ -82,13 +81,13 @@ public class ClientController {
 
     if (err == null) {
       addFeedback("Requesting update(" + key + ", " + updateValueField.getText() + ") to node " + coordinatorId);
-      system.update(clientActor, id, coordinatorId, key, updateValueField.getText());
+      system.update(clientActor, coordinatorId, key, updateValueField.getText());
     } else {
       showErrorDialog(err);
     }
   }
 
-  public ClientController (KeyValStoreSystem system, int id) {
+  public ClientController (FxKeyValStoreSystem system, int id) {
     this.system = system;
     this.id = id;
     feedbacks = FXCollections.observableArrayList();
@@ -0,0 +1,122 @@
+package client;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import javafx.beans.property.SimpleIntegerProperty;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.collections.ObservableList;
+import system.FxNodeHooks;
+import system.KeyValStoreSystem;
+import system.Node;
+import system.NodeHooks;
+
+/**
+ * The store as seen by the JavaFX UI: the nodes are bound to UI properties and the clients are shown in their own
+ * windows, which are kept up to date with the nodes of the store
+ */
+public class FxKeyValStoreSystem extends KeyValStoreSystem {
+
+  private final Map<Integer, ClientController> clientControllers;
+  private final Map<Integer, NodeHooks> hooks;     // Hooks of each node, holding its response delay
+
+  public FxKeyValStoreSystem () {
+    clientControllers = new HashMap<>();
+    hooks = new HashMap<>();
+  }
+
+  public class ClientActor extends AbstractActor {
+    //private final int id;
+    ObservableList<String> feedbacks;
+    public ClientActor (int id, ObservableList<String> feedbacks) {
+      //this.id = id;
+      this.feedbacks = feedbacks;
+    }
+    void onFeedback (Node.Feedback feedback) {
+      feedbacks.add(feedback.toString());
+    }
+    @Override
+    public Receive createReceive() {
+      return receiveBuilder()
+        .match(Node.Feedback.class, this::onFeedback)
+        .build();
+    }
+  }
+
+  public ActorRef createClientActor (int id, ObservableList<String> feedbacks) {
+    return getActorSystem().actorOf(Props.create(ClientActor.class, () -> new ClientActor(id, feedbacks)), "Client_" + id);
+  }
+
+  public ActorRef getClient(int id) {
+    return clientControllers.get(id).getClient();
+  }
+
+  public Collection<ClientController> getClientControllers() {
+    return clientControllers.values();
+  }
+
+  public void addClient (int id, ClientController clientController) {
+    clientControllers.put(id, clientController);
+    for (Integer i : getCurrentNodeIds()) {
+      clientController.addNode(i);
+    }
+  }
+
+  public void removeClient (int id) {
+    clientControllers.remove(id);
+  }
+
+  public void createNode (int id, int idBootNode, SimpleStringProperty logsProp, SimpleStringProperty storeProp, SimpleIntegerProperty delayProp) throws Exception {
+    // Binding node logs, store and response delay to the UI
+    createNode(id, idBootNode, new FxNodeHooks(logsProp, storeProp, delayProp));
+  }
+
+  @Override
+  public void createNode (int id, int idBootNode, NodeHooks hooks) throws Exception {
+    super.createNode(id, idBootNode, hooks);
+    this.hooks.put(id, hooks);
+    for (ClientController c : clientControllers.values()) {
+      c.addNode(id);
+    }
+  }
+
+  @Override
+  public void nodeLeaves (int id) {
+    super.nodeLeaves(id);
+    hooks.remove(id);
+    for (ClientController c : clientControllers.values()) {
+      c.removeNode(id);
+    }
+  }
+
+  public void get (ActorRef clientActor, int clientId, int coordinatorId, int key) {
+    feedback(clientId, "Requesting get(" + key + ") to node " + coordinatorId);
+    get(clientActor, coordinatorId, key);
+  }
+
+  public void update (ActorRef clientActor, int clientId, int coordinatorId, int key, String value) {
+    feedback(clientId, "Requesting update(" + key + ", " + value + ") to node " + coordinatorId);
+    update(clientActor, coordinatorId, key, value);
+  }
+
+  private void feedback (int clientId, String feedback) {
+    if (clientControllers.get(clientId) != null) {
+      clientControllers.get(clientId).addFeedback(feedback);
+    } else {
+      System.out.println("ERROR " + clientId + " " + feedback);
+    }
+  }
+
+  /**
+   * @param millis Artificial delay (milliseconds) added to the responses of the node, through its hooks
+   */
+  public void setDelay (int nodeId, int millis) {
+    NodeHooks h = hooks.get(nodeId);
+    if (h == null) { throw new IllegalArgumentException("Unknown node " + nodeId); }
+    h.setResponseDelay(millis);
+  }
+}
@@ -0,0 +1,226 @@
+package client;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import akka.actor.AbstractActorWithTimers;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.NoSerializationVerificationNeeded;
+import akka.actor.Props;
+import system.KeyValStoreSystem;
+import system.Node;
+import system.StoreValue;
+
+/**
+ * Asynchronous client of the key-value store.
+ * All the requests share one connection actor, which correlates the feedbacks with the pending requests through
+ * their id: any number of requests can be in flight at the same time, towards any coordinator.
+ */
+public class KeyValueClient implements AutoCloseable {
+
+  /** Thrown when the coordinator could not satisfy a request */
+  public static class RequestFailedException extends RuntimeException {
+    public final Node.Feedback feedback;
+    public RequestFailedException(Node.Feedback feedback) {
+      super(feedback.toString());
+      this.feedback = feedback;
+    }
+  }
+
+  private static final Duration MARGIN = Duration.ofSeconds(1); // Time left to the feedback of a request timed out by its coordinator
+
+  private final ActorRef connection;
+  private final AtomicLong reqCount = new AtomicLong();
+
+  public KeyValueClient (KeyValStoreSystem system) {
+    this(system.getActorSystem(), system.getActorSystem().settings().config().getDuration("kvstore.replication.timeout").plus(MARGIN));
+  }
+
+  /**
+   * @param system  The actor system the connection is created in
+   * @param timeout Time after which a request with no feedback fails with a TimeoutException
+   */
+  public KeyValueClient (ActorSystem system, Duration timeout) {
+    connection = system.actorOf(Props.create(Connection.class, () -> new Connection(timeout)));
+  }
+
+  /**
+   * Reads a key
+   * @return The freshest value among the read quorum (null if the key is not stored);
+   *         fails with a RequestFailedException if the quorum is not reached
+   */
+  public CompletionStage<StoreValue> get (ActorRef coordinator, int key) {
+    return get(coordinator, key, Node.CONSISTENCY.DEFAULT, null);
+  }
+
+  /**
+   * Reads a key with the given consistency level
+   * @param timeout Time the coordinator has to reach the quorum (null for the configured one)
+   * @return As for {@link #get(ActorRef, int)}
+   */
+  public CompletionStage<StoreValue> get (ActorRef coordinator, int key, Node.CONSISTENCY consistency, Duration timeout) {
+    return this.<Node.Feedback>send(coordinator, reqId -> new Node.Get(key, reqId, consistency, millis(timeout)), timeout)
+      .thenApply(feedback -> {
+        StoreValue value = valueOf(feedback);
+        return value.getVersion() < 0 ? null : value;  // No replica holds the key
+      });
+  }
+
+  /**
+   * Writes a key
+   * @return The value written, with its version;
+   *         fails with a RequestFailedException if the quorum is not reached
+   */
+  public CompletionStage<StoreValue> update (ActorRef coordinator, int key, String value) {
+    return update(coordinator, key, value, Node.CONSISTENCY.DEFAULT, null);
+  }
+
+  /**
+   * Writes a key with the given consistency level
+   * @param timeout Time the coordinator has to reach the quorum (null for the configured one)
+   * @return As for {@link #update(ActorRef, int, String)}
+   */
+  public CompletionStage<StoreValue> update (ActorRef coordinator, int key, String value, Node.CONSISTENCY consistency, Duration timeout) {
+    return this.<Node.Feedback>send(coordinator, reqId -> new Node.Update(key, value, reqId, consistency, millis(timeout)), timeout)
+      .thenApply(KeyValueClient::valueOf);
+  }
+
+  public CompletionStage<Node.MultiFeedback> multiGet (ActorRef coordinator, int[] keys) {
+    return send(coordinator, reqId -> new Node.MultiGet(keys, reqId), null);
+  }
+
+  public CompletionStage<Node.MultiFeedback> multiUpdate (ActorRef coordinator, Map<Integer, String> values) {
+    return send(coordinator, reqId -> new Node.MultiUpdate(values, reqId), null);
+  }
+
+  private interface RequestFactory {
+    Object create(long reqId);
+  }
+
+  private static StoreValue valueOf (Node.Feedback feedback) {
+    if (feedback.status == Node.STATUS.ERROR) { throw new RequestFailedException(feedback); }
+    return feedback.value;
+  }
+
+  private static int millis (Duration timeout) {
+    return timeout == null ? 0 : (int) timeout.toMillis();
+  }
+
+  /**
+   * @param timeout Timeout given to the coordinator (null for the configured one); the request expires a bit later
+   */
+  @SuppressWarnings("unchecked")
+  private <T> CompletionStage<T> send (ActorRef coordinator, RequestFactory factory, Duration timeout) {
+    long reqId = reqCount.getAndIncrement();
+    CompletableFuture<Object> future = new CompletableFuture<>();
+    Duration expiry = timeout == null ? null : timeout.plus(MARGIN);
+    connection.tell(new Send(reqId, coordinator, factory.create(reqId), future, expiry), ActorRef.noSender());
+    return (CompletionStage<T>) (CompletionStage<?>) future;
+  }
+
+  /**
+   * Stops the connection; the requests still pending are failed
+   */
+  @Override
+  public void close () {
+    connection.tell(new Close(), ActorRef.noSender());
+  }
+
+  /*-- Connection actor -------------------------------------------------------*/
+
+  // Messages local to the client, never serialized
+
+  private static class Send implements NoSerializationVerificationNeeded {
+    final long reqId;
+    final ActorRef coordinator;
+    final Object request;
+    final CompletableFuture<Object> future;
+    final Duration timeout;   // Null for the timeout of the connection
+    Send(long reqId, ActorRef coordinator, Object request, CompletableFuture<Object> future, Duration timeout) {
+      this.reqId = reqId;
+      this.coordinator = coordinator;
+      this.request = request;
+      this.future = future;
+      this.timeout = timeout;
+    }
+  }
+
+  private static class Expired implements NoSerializationVerificationNeeded {
+    final long reqId;
+    final Duration timeout;
+    Expired(long reqId, Duration timeout) {
+      this.reqId = reqId;
+      this.timeout = timeout;
+    }
+  }
+
+  private static class Close implements NoSerializationVerificationNeeded {}
+
+  static class Connection extends AbstractActorWithTimers {
+    private final Duration timeout;
+    private final Map<Long, CompletableFuture<Object>> pending = new HashMap<>();
+
+    Connection (Duration timeout) {
+      this.timeout = timeout;
+    }
+
+    void onSend (Send msg) {
+      // The future is registered before the request leaves, so the feedback always finds it
+      pending.put(msg.reqId, msg.future);
+      Duration expiry = msg.timeout != null ? msg.timeout : timeout;
+      getTimers().startSingleTimer(msg.reqId, new Expired(msg.reqId, expiry), expiry);
+      msg.coordinator.tell(msg.request, getSelf());
+    }
+
+    void complete (long reqId, Object feedback) {
+      CompletableFuture<Object> future = pending.remove(reqId);
+      if (future == null) { return; } // Request already expired
+      getTimers().cancel(reqId);
+      future.complete(feedback);
+    }
+
+    void onFeedback (Node.Feedback msg) {
+      complete(msg.reqId, msg);
+    }
+
+    void onMultiFeedback (Node.MultiFeedback msg) {
+      complete(msg.reqId, msg);
+    }
+
+    void onExpired (Expired msg) {
+      CompletableFuture<Object> future = pending.remove(msg.reqId);
+      if (future != null) {
+        future.completeExceptionally(new TimeoutException("No feedback for request " + msg.reqId + " after " + msg.timeout.toMillis() + "ms"));
+      }
+    }
+
+    void onClose (Close msg) {
+      getContext().stop(getSelf());
+    }
+
+    @Override
+    public void postStop () {
+      for (CompletableFuture<Object> future : pending.values()) {
+        future.completeExceptionally(new IllegalStateException("Client closed"));
+      }
+      pending.clear();
+    }
+
+    @Override
+    public Receive createReceive() {
+      return receiveBuilder()
+        .match(Send.class, this::onSend)
+        .match(Node.Feedback.class, this::onFeedback)
+        .match(Node.MultiFeedback.class, this::onMultiFeedback)
+        .match(Expired.class, this::onExpired)
+        .match(Close.class, this::onClose)
+        .build();
+    }
+  }
+}
@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.util.TreeSet;
 
 import client.ClientController;
+import client.FxKeyValStoreSystem;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.beans.property.SimpleIntegerProperty;
@@ -24,13 +25,12 @@ import javafx.scene.control.TextField;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
-import system.KeyValStoreSystem;
 
 public class Main extends Application {
 
   static int clientCount = 0;
-  private KeyValStoreSystem system;
-  protected KeyValStoreSystem getSystem() {
+  private FxKeyValStoreSystem system;
+  protected FxKeyValStoreSystem getSystem() {
     return system;
   }
 
@@ -174,7 +174,7 @@ public class Main extends Application {
       stage.setY(30);
       stage.show();
 
-      system = new KeyValStoreSystem();
+      system = new FxKeyValStoreSystem();
     } catch (Exception e) {
       e.printStackTrace();
     }
@@ -0,0 +1,31 @@
+package main;
+
+import akka.actor.ExtendedActorSystem;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import system.KeyValStoreSystem;
+import system.NodeHooks;
+
+/**
+ * Remote entry point: starts a single node in its own ActorSystem, reachable over Artery TCP, so that the nodes of
+ * the store can run in separate processes (or machines). The node joins the store through the system of any node
+ * already in it (the seed), or starts a new store if no seed is given.
+ * Usage: RemoteNode nodeId port [seed], e.g. RemoteNode 20 25521 akka://distr-key-val-system@127.0.0.1:25520
+ * The host the node binds to is <code>akka.remote.artery.canonical.hostname</code>.
+ */
+public class RemoteNode {
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 2) {
+      System.err.println("Usage: RemoteNode nodeId port [seed]");
+      System.exit(1);
+    }
+    int id = Integer.parseInt(args[0]);
+    Config config = ConfigFactory.parseString("akka.actor.provider = remote\nakka.remote.artery.canonical.port = " + Integer.parseInt(args[1]))
+      .withFallback(ConfigFactory.load());
+    KeyValStoreSystem system = new KeyValStoreSystem(config);
+    system.createNode(id, args.length > 2 ? args[2] : "", NodeHooks.NONE);
+    System.out.println("Node " + id + " started at " + ((ExtendedActorSystem) system.getActorSystem()).provider().getDefaultAddress());
+  }
+}
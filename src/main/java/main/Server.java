@@ -0,0 +1,31 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import system.KeyValStoreSystem;
+import system.NodeHooks;
+
+/**
+ * Headless entry point: starts the nodes of the system without any UI.
+ * The node ids are taken from the arguments, or from <code>kvstore.server.nodes</code> in the configuration.
+ * Usage: Server [nodeIds...]
+ */
+public class Server {
+
+  private static final int JOIN_DELAY = 200; // Time (ms) given to each node to join before starting the next one
+
+  public static void main(String[] args) throws Exception {
+    KeyValStoreSystem system = new KeyValStoreSystem();
+
+    List<Integer> ids = new ArrayList<>();
+    for (String arg : args) { ids.add(Integer.parseInt(arg)); }
+    if (ids.isEmpty()) { ids.addAll(system.getActorSystem().settings().config().getIntList("kvstore.server.nodes")); }
+
+    for (Integer id : ids) {
+      system.createNode(id, ids.get(0), NodeHooks.NONE);
+      Thread.sleep(JOIN_DELAY);
+    }
+    System.out.println("Nodes " + ids + " started");
+  }
+}
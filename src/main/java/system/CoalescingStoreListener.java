@@ -0,0 +1,53 @@
+package system;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Coalesces the changes to a store and delivers them as a diff at most once per interval,
+ * so that each change costs O(1) whatever the size of the store.
+ * In a diff a <code>null</code> value means that the item has been removed.
+ * Diffs are delivered on the shared timer thread of {@link Utils}.
+ */
+public class CoalescingStoreListener implements StoreListener {
+
+  private final int interval;
+  private final Consumer<Map<Integer, StoreValue>> observer;
+  private Map<Integer, StoreValue> pending;  // Changes not delivered yet (guarded by this)
+
+  /**
+   * @param interval Minimum time (ms) between two diffs
+   * @param observer Receiver of the diffs
+   */
+  public CoalescingStoreListener (int interval, Consumer<Map<Integer, StoreValue>> observer) {
+    this.interval = interval;
+    this.observer = observer;
+    this.pending = new HashMap<>();
+  }
+
+  @Override
+  public void onPut (int key, StoreValue value) {
+    change(key, value);
+  }
+
+  @Override
+  public void onRemove (int key) {
+    change(key, null);
+  }
+
+  private synchronized void change (int key, StoreValue value) {
+    // The first change after a flush schedules the next one
+    if (pending.isEmpty()) { Utils.setTimeout(this::flush, interval); }
+    pending.put(key, value);
+  }
+
+  private void flush () {
+    Map<Integer, StoreValue> diff;
+    synchronized (this) {
+      diff = pending;
+      pending = new HashMap<>();
+    }
+    if (!diff.isEmpty()) { observer.accept(diff); }
+  }
+}
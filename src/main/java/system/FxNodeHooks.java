@@ -0,0 +1,105 @@
+package system;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Formatter;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javafx.application.Platform;
+import javafx.beans.property.SimpleIntegerProperty;
+import javafx.beans.property.SimpleStringProperty;
+
+/**
+ * Binds the logs, the store and the response delay of a node to JavaFX properties
+ */
+public class FxNodeHooks implements NodeHooks {
+
+  private static final int STORE_REFRESH = 100; // Minimum time (ms) between two renderings of the store
+  private static final int MAX_LOG_LINES = 1000; // Log lines kept in the UI
+
+  private final Deque<String> logs;              // Only accessed by the FX thread
+  private final Queue<String> pendingLogs;       // Log lines not rendered yet
+  private final AtomicBoolean logsScheduled;
+  private final Map<Integer, StoreValue> store;   // Copy of the node store, only accessed by the FX thread
+  private final StoreListener storeListener;
+  private final SimpleStringProperty logsProp, storeProp;
+  private final SimpleIntegerProperty delayProp;
+  private boolean crashed;
+
+  public FxNodeHooks (SimpleStringProperty logsProp, SimpleStringProperty storeProp, SimpleIntegerProperty delayProp) {
+    this.logs = new ArrayDeque<>();
+    this.pendingLogs = new ConcurrentLinkedQueue<>();
+    this.logsScheduled = new AtomicBoolean();
+    this.store = new TreeMap<>();
+    this.logsProp = logsProp;
+    this.storeProp = storeProp;
+    this.delayProp = delayProp;
+    this.storeListener = new CoalescingStoreListener(STORE_REFRESH, (diff) -> Platform.runLater(() -> {
+      for (Map.Entry<Integer, StoreValue> e : diff.entrySet()) {
+        if (e.getValue() == null) { store.remove(e.getKey()); }
+        else { store.put(e.getKey(), e.getValue()); }
+      }
+      renderStore();
+    }));
+  }
+
+  private void renderStore () {
+    if (crashed) {
+      storeProp.setValue("CRASHED!");
+      return;
+    }
+    if (store.isEmpty()) {
+      storeProp.setValue("Empty store!!");
+      return;
+    }
+    Formatter fmt = new Formatter();
+    for (Map.Entry<Integer, StoreValue> e : store.entrySet()) {
+      fmt.format("%-3d -> %s%n", e.getKey(), e.getValue());
+    }
+    storeProp.setValue(fmt.toString().trim());
+    fmt.close();
+  }
+
+  @Override
+  public void onLog (String log) {
+    pendingLogs.add(log);
+    // Render the lines in batches, with a single FX task at a time
+    if (logsScheduled.compareAndSet(false, true)) {
+      Platform.runLater(() -> {
+        logsScheduled.set(false);
+        for (String l = pendingLogs.poll(); l != null; l = pendingLogs.poll()) {
+          logs.addLast(l);
+          if (logs.size() > MAX_LOG_LINES) { logs.removeFirst(); }
+        }
+        logsProp.setValue(String.join("\n", logs));
+      });
+    }
+  }
+
+  @Override
+  public StoreListener getStoreListener () {
+    return storeListener;
+  }
+
+  @Override
+  public void onCrashed (boolean crashed) {
+    Platform.runLater(() -> {
+      this.crashed = crashed;
+      renderStore();
+    });
+  }
+
+  @Override
+  public int getResponseDelay () {
+    return delayProp.get();
+  }
+
+  @Override
+  public void setResponseDelay (int millis) {
+    delayProp.setValue(millis);
+  }
+}
@@ -0,0 +1,177 @@
+package system;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes accepted by a node on behalf of crashed replicas (hinted handoff), waiting to be handed to them.
+ * Only the last version of every key is kept for each replica. If durable, the hints of every replica are logged
+ * to their own write-ahead log: the log is rotated when a delivery starts and its rotated records are dropped once
+ * the replica has acked them, so the files never grow beyond the hints not yet delivered.
+ */
+public class HintStore {
+
+  private static final String PREFIX = "hints-", SUFFIX = ".wal";
+
+  private final Map<Integer, Map<Integer, StoreValue>> hints = new HashMap<>(); // Hints by replica, then by key
+  private final Map<Integer, WriteAheadLog> logs = new HashMap<>();
+  private final Path dir;               // Directory of the logs (null if not durable)
+  private final int syncBatch;
+  private final long syncInterval;
+  private final boolean fsync;
+
+  /**
+   * Hints kept only in memory
+   */
+  public HintStore() {
+    this(null, 0, 0, false);
+  }
+
+  /**
+   * @param dir          Directory of the logs of the node (null to keep the hints only in memory)
+   * @param syncBatch    Group commit settings of the logs, as in {@link WriteAheadLog}
+   * @param syncInterval
+   * @param fsync
+   */
+  public HintStore(Path dir, int syncBatch, long syncInterval, boolean fsync) {
+    this.dir = dir;
+    this.syncBatch = syncBatch;
+    this.syncInterval = syncInterval;
+    this.fsync = fsync;
+  }
+
+  /**
+   * Reloads the hints from the logs found in the directory
+   * @return The number of hints loaded
+   */
+  public int load() throws IOException {
+    if (dir == null) { return 0; }
+    Files.createDirectories(dir);
+    hints.clear();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+      for (Path file : files) {
+        String name = file.getFileName().toString();
+        int target = Integer.parseInt(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        Map<Integer, StoreValue> items = hints.computeIfAbsent(target, (k) -> new HashMap<>());
+        getLog(target).replay(new WriteAheadLog.Consumer() {
+          @Override
+          public void onPut(int key, StoreValue value) {
+            if (value.compareTo(items.get(key)) > 0) { items.put(key, value); }
+          }
+          @Override
+          public void onRemove(int key) {
+            items.remove(key);
+          }
+        });
+        if (items.isEmpty()) { hints.remove(target); }
+      }
+    }
+    return size();
+  }
+
+  private WriteAheadLog getLog(int target) throws IOException {
+    WriteAheadLog log = logs.get(target);
+    if (log == null) {
+      log = new WriteAheadLog(dir.resolve(PREFIX + target + SUFFIX), syncBatch, syncInterval, fsync);
+      logs.put(target, log);
+    }
+    return log;
+  }
+
+  /**
+   * Stores a hint, unless a fresher one is already stored for the same key
+   * @return Whether the hint was stored
+   */
+  public boolean add(int target, int key, StoreValue value) {
+    Map<Integer, StoreValue> items = hints.computeIfAbsent(target, (k) -> new HashMap<>());
+    if (value.compareTo(items.get(key)) <= 0) { return false; }
+    items.put(key, value);
+    if (dir != null) {
+      try {
+        getLog(target).put(key, value);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return The freshest hint stored for the key, for any replica (null if none)
+   */
+  public StoreValue get(int key) {
+    StoreValue fresh = null;
+    for (Map<Integer, StoreValue> items : hints.values()) {
+      StoreValue value = items.get(key);
+      if (value != null && value.compareTo(fresh) > 0) { fresh = value; }
+    }
+    return fresh;
+  }
+
+  /**
+   * @return The replicas with hints to deliver
+   */
+  public Set<Integer> targets() {
+    return hints.keySet();
+  }
+
+  public int size() {
+    int size = 0;
+    for (Map<Integer, StoreValue> items : hints.values()) { size += items.size(); }
+    return size;
+  }
+
+  /**
+   * Starts the delivery of the hints of a replica
+   * @return A copy of the hints to deliver
+   */
+  public Map<Integer, StoreValue> startDelivery(int target) {
+    WriteAheadLog log = logs.get(target);
+    if (log != null) { log.rotate(); } // The hints logged from now on are not part of the delivery
+    return new HashMap<>(hints.getOrDefault(target, new HashMap<>()));
+  }
+
+  /**
+   * Forgets the hints acked by a replica; the ones updated during the delivery (logged after the rotation) are kept
+   * @param keys   The keys of the hints returned by startDelivery
+   * @param values Their values
+   */
+  public void delivered(int target, int[] keys, StoreValue[] values) {
+    WriteAheadLog log = logs.get(target);
+    if (log != null) { log.dropRotated(); }
+    Map<Integer, StoreValue> items = hints.get(target);
+    if (items == null) { return; }
+    for (int i = 0; i < keys.length; ++i) {
+      items.remove(keys[i], values[i]);
+    }
+    if (items.isEmpty()) { hints.remove(target); }
+  }
+
+  /**
+   * Drops the hints of a replica (e.g. one that left the system)
+   */
+  public void drop(int target) {
+    hints.remove(target);
+    WriteAheadLog log = logs.remove(target);
+    if (log != null) { log.delete(); }
+  }
+
+  /**
+   * Simulates the loss of the process: the hints not yet on disk are lost, the others are reloaded by load
+   */
+  public void crash() {
+    if (dir == null) { return; }
+    for (WriteAheadLog log : logs.values()) { log.crash(); }
+    hints.clear();
+  }
+
+  public void close() {
+    for (WriteAheadLog log : logs.values()) { log.close(); }
+  }
+}
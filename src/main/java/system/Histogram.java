@@ -0,0 +1,89 @@
+package system;
+
+import java.util.Arrays;
+
+/**
+ * Log-linear histogram of non negative values (e.g. latencies), in the style of HdrHistogram:
+ * values are recorded in constant time with a relative error below 1%.
+ * Not thread safe; recorders owned by different threads can be merged.
+ */
+public class Histogram {
+
+  private static final int SUB_BITS = 7;
+  private static final int SUB = 1 << SUB_BITS;
+
+  private final long[] counts;
+  private long total, max, sum;
+
+  public Histogram () {
+    this.counts = new long[(64 - SUB_BITS + 1) * SUB];
+  }
+
+  private Histogram (Histogram h) {
+    this.counts = Arrays.copyOf(h.counts, h.counts.length);
+    this.total = h.total;
+    this.max = h.max;
+    this.sum = h.sum;
+  }
+
+  private static int index (long value) {
+    int bucket = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BITS);
+    return bucket * SUB + (int) (value >>> bucket);
+  }
+
+  private static long highestValue (int index) {
+    int bucket = Math.max(0, index / SUB - 1);
+    return ((long) (index - bucket * SUB + 1) << bucket) - 1;
+  }
+
+  public void record (long value) {
+    if (value < 0) { value = 0; }
+    counts[index(value)]++;
+    total++;
+    sum += value;
+    max = Math.max(max, value);
+  }
+
+  public void merge (Histogram h) {
+    for (int i = 0; i < counts.length; ++i) { counts[i] += h.counts[i]; }
+    total += h.total;
+    sum += h.sum;
+    max = Math.max(max, h.max);
+  }
+
+  public void reset () {
+    Arrays.fill(counts, 0);
+    total = max = sum = 0;
+  }
+
+  public Histogram copy () {
+    return new Histogram(this);
+  }
+
+  public long getCount () {
+    return total;
+  }
+
+  public long getMax () {
+    return max;
+  }
+
+  public double getMean () {
+    return total == 0 ? 0 : (double) sum / total;
+  }
+
+  /**
+   * @param percentile Percentile in [0, 100]
+   * @return The (approximate) value below which the given percentage of the recorded values falls
+   */
+  public long getPercentile (double percentile) {
+    if (total == 0) { return 0; }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+    long seen = 0;
+    for (int i = 0; i < counts.length; ++i) {
+      seen += counts[i];
+      if (seen >= rank) { return Math.min(highestValue(i), max); }
+    }
+    return max;
+  }
+}
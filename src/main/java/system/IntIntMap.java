@@ -0,0 +1,145 @@
+package system;
+
+import java.util.Arrays;
+
+/**
+ * Map from int keys to int values, laid out as {@link IntMap} (open addressing, linear probing, backward-shift
+ * removals) but with each entry packed in a single long, so a lookup reads one cache line.
+ * NONE stands for an absent value and cannot be stored.
+ * Not thread safe.
+ */
+public class IntIntMap {
+
+  public interface Visitor {
+    void visit(int key, int value);
+  }
+
+  public static final int NONE = -1;
+
+  private static final int MIN_CAPACITY = 16;
+  private static final float LOAD_FACTOR = 0.6f;
+  private static final long FREE = NONE & 0xffffffffL;  // Entry of a free slot
+
+  private long[] entries;     // Key in the high half, value in the low half
+  private int size;
+  private int mask;           // Capacity - 1, the capacity being a power of 2
+  private int shift;          // 32 - log2(capacity)
+  private int maxSize;        // Size beyond which the table grows
+
+  public IntIntMap() {
+    allocate(MIN_CAPACITY);
+  }
+
+  private void allocate(int capacity) {
+    entries = new long[capacity];
+    Arrays.fill(entries, FREE);
+    mask = capacity - 1;
+    shift = Integer.numberOfLeadingZeros(capacity) + 1;
+    maxSize = (int) (capacity * LOAD_FACTOR);
+  }
+
+  private static long entry(int key, int value) {
+    return (long) key << 32 | (value & 0xffffffffL);
+  }
+
+  private static int key(long entry) {
+    return (int) (entry >>> 32);
+  }
+
+  private static int value(long entry) {
+    return (int) entry;
+  }
+
+  private int slot(int key) {
+    return (key * 0x9E3779B9) >>> shift;
+  }
+
+  private int find(int key) {
+    for (int i = slot(key); value(entries[i]) != NONE; i = (i + 1) & mask) {
+      if (key(entries[i]) == key) { return i; }
+    }
+    return -1;
+  }
+
+  /**
+   * @return The value of the key, or NONE if absent
+   */
+  public int get(int key) {
+    int i = find(key);
+    return i < 0 ? NONE : value(entries[i]);
+  }
+
+  /**
+   * @return The previous value of the key, or NONE if absent
+   */
+  public int put(int key, int value) {
+    if (value == NONE) { throw new IllegalArgumentException("NONE cannot be stored"); }
+    int i = slot(key);
+    for (; value(entries[i]) != NONE; i = (i + 1) & mask) {
+      if (key(entries[i]) == key) {
+        int old = value(entries[i]);
+        entries[i] = entry(key, value);
+        return old;
+      }
+    }
+    entries[i] = entry(key, value);
+    if (++size > maxSize) { grow(); }
+    return NONE;
+  }
+
+  /**
+   * @return The value removed, or NONE if the key was absent
+   */
+  public int remove(int key) {
+    int i = find(key);
+    if (i < 0) { return NONE; }
+    int old = value(entries[i]);
+    int free = i;
+    for (int j = (i + 1) & mask; value(entries[j]) != NONE; j = (j + 1) & mask) {
+      int home = slot(key(entries[j]));
+      if (((j - home) & mask) >= ((j - free) & mask)) {
+        entries[free] = entries[j];
+        free = j;
+      }
+    }
+    entries[free] = FREE;
+    size--;
+    return old;
+  }
+
+  private void grow() {
+    long[] old = entries;
+    allocate(entries.length << 1);
+    for (long e : old) {
+      if (value(e) == NONE) { continue; }
+      int j = slot(key(e));
+      while (value(entries[j]) != NONE) { j = (j + 1) & mask; }
+      entries[j] = e;
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Visits all the entries (the map must not be modified during the visit)
+   */
+  public void forEach(Visitor visitor) {
+    for (long e : entries) {
+      if (value(e) != NONE) { visitor.visit(key(e), value(e)); }
+    }
+  }
+
+  /**
+   * @return A copy of the keys
+   */
+  public int[] keys() {
+    int[] res = new int[size];
+    int n = 0;
+    for (long e : entries) {
+      if (value(e) != NONE) { res[n++] = key(e); }
+    }
+    return res;
+  }
+}
@@ -0,0 +1,163 @@
+package system;
+
+import java.util.Arrays;
+
+/**
+ * Map from int keys to non null values, with open addressing and linear probing over two parallel arrays:
+ * no boxing of the keys and no entry object, so an item costs two array slots instead of a HashMap node.
+ * Removals shift back the following entries of the probe sequence, so no tombstones are left.
+ * Not thread safe.
+ */
+public class IntMap<V> {
+
+  public interface Visitor<V> {
+    void visit(int key, V value);
+  }
+
+  private static final int MIN_CAPACITY = 16;
+  private static final float LOAD_FACTOR = 0.6f;
+
+  private int[] keys;
+  private Object[] values;    // A null value marks a free slot
+  private int size;
+  private int mask;           // Capacity - 1, the capacity being a power of 2
+  private int shift;          // 32 - log2(capacity)
+  private int maxSize;        // Size beyond which the table grows
+
+  public IntMap() {
+    this(MIN_CAPACITY);
+  }
+
+  /**
+   * @param expected Number of entries the map can hold without growing
+   */
+  public IntMap(int expected) {
+    int capacity = MIN_CAPACITY;
+    while (capacity * LOAD_FACTOR < expected) { capacity <<= 1; }
+    allocate(capacity);
+  }
+
+  private void allocate(int capacity) {
+    keys = new int[capacity];
+    values = new Object[capacity];
+    mask = capacity - 1;
+    shift = Integer.numberOfLeadingZeros(capacity) + 1;
+    maxSize = (int) (capacity * LOAD_FACTOR);
+  }
+
+  private int slot(int key) {
+    // Fibonacci hashing: the high bits of the product spread sequential keys over the table
+    return (key * 0x9E3779B9) >>> shift;
+  }
+
+  private int find(int key) {
+    for (int i = slot(key); values[i] != null; i = (i + 1) & mask) {
+      if (keys[i] == key) { return i; }
+    }
+    return -1;
+  }
+
+  /**
+   * @return The value of the key, or null if absent
+   */
+  @SuppressWarnings("unchecked")
+  public V get(int key) {
+    int i = find(key);
+    return i < 0 ? null : (V) values[i];
+  }
+
+  public boolean containsKey(int key) {
+    return find(key) >= 0;
+  }
+
+  /**
+   * @return The previous value of the key, or null if absent
+   */
+  @SuppressWarnings("unchecked")
+  public V put(int key, V value) {
+    if (value == null) { throw new NullPointerException("Null values are not allowed"); }
+    int i = slot(key);
+    for (; values[i] != null; i = (i + 1) & mask) {
+      if (keys[i] == key) {
+        V old = (V) values[i];
+        values[i] = value;
+        return old;
+      }
+    }
+    keys[i] = key;
+    values[i] = value;
+    if (++size > maxSize) { grow(); }
+    return null;
+  }
+
+  /**
+   * @return The value removed, or null if the key was absent
+   */
+  @SuppressWarnings("unchecked")
+  public V remove(int key) {
+    int i = find(key);
+    if (i < 0) { return null; }
+    V old = (V) values[i];
+    // Shift back the entries that would not be reachable anymore from their slot
+    int free = i;
+    for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+      int home = slot(keys[j]);
+      if (((j - home) & mask) >= ((j - free) & mask)) {
+        keys[free] = keys[j];
+        values[free] = values[j];
+        free = j;
+      }
+    }
+    values[free] = null;
+    size--;
+    return old;
+  }
+
+  private void grow() {
+    int[] oldKeys = keys;
+    Object[] oldValues = values;
+    allocate(keys.length << 1);
+    for (int i = 0; i < oldKeys.length; ++i) {
+      if (oldValues[i] == null) { continue; }
+      int j = slot(oldKeys[i]);
+      while (values[j] != null) { j = (j + 1) & mask; }
+      keys[j] = oldKeys[i];
+      values[j] = oldValues[i];
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Visits all the entries (the map must not be modified during the visit)
+   */
+  @SuppressWarnings("unchecked")
+  public void forEach(Visitor<? super V> visitor) {
+    for (int i = 0; i < keys.length; ++i) {
+      if (values[i] != null) { visitor.visit(keys[i], (V) values[i]); }
+    }
+  }
+
+  /**
+   * @return A copy of the keys
+   */
+  public int[] keys() {
+    int[] res = new int[size];
+    int n = 0;
+    for (int i = 0; i < keys.length; ++i) {
+      if (values[i] != null) { res[n++] = keys[i]; }
+    }
+    return res;
+  }
+
+  public void clear() {
+    Arrays.fill(values, null);
+    size = 0;
+  }
+}
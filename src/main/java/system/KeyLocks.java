@@ -0,0 +1,112 @@
+package system;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import akka.actor.ActorRef;
+import system.PendingRequest.ACT;
+
+/**
+ * Locks taken on the keys of a node by the updates in progress.
+ * Requests for a locked key wait in a FIFO queue of bounded depth and are served in order once the lock is released:
+ * the reads are answered right away, the first update takes the lock again and the requests after it keep waiting.
+ */
+public class KeyLocks {
+
+  public static class Waiter {
+    public final ActorRef sender;
+    public final int reqId;
+    public final ACT act;
+    public Waiter(ActorRef sender, int reqId, ACT act) {
+      this.sender = sender;
+      this.reqId = reqId;
+      this.act = act;
+    }
+  }
+
+  private static class Lock {
+    ActorRef owner;             // Coordinator of the update holding the lock
+    int reqId;                  // Its request id
+    ArrayDeque<Waiter> waiters; // Created at the first waiter
+  }
+
+  private final IntMap<Lock> locks = new IntMap<>();
+  private final int maxQueue;
+
+  /**
+   * @param maxQueue Maximum number of requests waiting for each key
+   */
+  public KeyLocks(int maxQueue) {
+    this.maxQueue = maxQueue;
+  }
+
+  public boolean isLocked(int key) {
+    return locks.containsKey(key);
+  }
+
+  /**
+   * Takes the lock of a key for an update, unless it is already held
+   * @return Whether the lock was taken
+   */
+  public boolean lock(int key, ActorRef owner, int reqId) {
+    if (locks.containsKey(key)) { return false; }
+    Lock lock = new Lock();
+    lock.owner = owner;
+    lock.reqId = reqId;
+    locks.put(key, lock);
+    return true;
+  }
+
+  /**
+   * Queues a request for a locked key
+   * @return Whether the request was queued (false if the queue is full)
+   */
+  public boolean enqueue(int key, Waiter waiter) {
+    Lock lock = locks.get(key);
+    if (lock.waiters == null) { lock.waiters = new ArrayDeque<>(); }
+    if (lock.waiters.size() >= maxQueue) { return false; }
+    lock.waiters.add(waiter);
+    return true;
+  }
+
+  /**
+   * Releases the lock of a key, whoever holds it
+   * @return The requests to serve now, in order; if the last one is an update it holds the lock
+   */
+  public List<Waiter> release(int key) {
+    Lock lock = locks.remove(key);
+    if (lock == null || lock.waiters == null) { return Collections.emptyList(); }
+    List<Waiter> ready = new ArrayList<>();
+    while (!lock.waiters.isEmpty()) {
+      Waiter w = lock.waiters.poll();
+      ready.add(w);
+      if (w.act == ACT.UPDATE) {
+        // The update takes the lock, the following requests wait for it
+        lock.owner = w.sender;
+        lock.reqId = w.reqId;
+        locks.put(key, lock);
+        break;
+      }
+    }
+    return ready;
+  }
+
+  /**
+   * Releases the lock of a key only if it is held by the given update
+   * @return The requests to serve now, as for {@link #release(int)}
+   */
+  public List<Waiter> release(int key, ActorRef owner, int reqId) {
+    Lock lock = locks.get(key);
+    if (lock == null || lock.reqId != reqId || !lock.owner.equals(owner)) { return Collections.emptyList(); }
+    return release(key);
+  }
+
+  /**
+   * Drops all the locks and the waiting requests
+   */
+  public void clear() {
+    locks.clear();
+  }
+}
@@ -1,89 +1,48 @@
 package system;
 
-import java.util.ArrayList;
-import java.util.Collection;
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import akka.actor.AbstractActor;
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
-import akka.actor.Props;
-import client.ClientController;
-import javafx.beans.property.SimpleIntegerProperty;
-import javafx.beans.property.SimpleStringProperty;
-import javafx.collections.ObservableList;
+import akka.pattern.Patterns;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
 
 public class KeyValStoreSystem {
 
-  public static final Map<Integer, List<String>> logsMap = new HashMap<>();
-  public static final Map<Integer, SimpleStringProperty> storesMap = new HashMap<>();
-  public static final Map<Integer, SimpleIntegerProperty> delaysMap = new HashMap<>();
+  private static final Duration RESOLVE_TIMEOUT = Duration.ofSeconds(5); // To find the nodes of other processes
 
   private final ActorSystem system;
   private final Set<Integer> crashed;
   private final Map<Integer, ActorRef> nodes;
-  private final Map<Integer, ClientController> clientControllers;
 
   public KeyValStoreSystem () {
-    system = ActorSystem.create("distr-key-val-system");
-    crashed = new HashSet<>();
-    nodes = new HashMap<>();
-    clientControllers = new HashMap<>();
-  }
-
-  public Set<Integer> getCurrentNodeIds () {
-    return nodes.keySet();
-  }
-
-  public class ClientActor extends AbstractActor {
-    //private final int id;
-    ObservableList<String> feedbacks;
-    public ClientActor (int id, ObservableList<String> feedbacks) {
-      //this.id = id;
-      this.feedbacks = feedbacks;
-    }
-    void onFeedback (Node.Feedback feedback) {
-      feedbacks.add(feedback.feedback);
-    }
-    @Override
-    public Receive createReceive() {
-      return receiveBuilder()
-        .match(Node.Feedback.class, this::onFeedback)
-        .build();
-    }
-  }
-
-  public ActorRef createClientActor (int id, ObservableList<String> feedbacks) {
-    return system.actorOf(Props.create(ClientActor.class, () -> new ClientActor(id, feedbacks)), "Client_" + id);
+    this(ConfigFactory.load());
   }
 
-  public ActorRef getClient(int id) {
-    return clientControllers.get(id).getClient();
+  public KeyValStoreSystem (Config config) {
+    system = ActorSystem.create("distr-key-val-system", config);
+    crashed = new HashSet<>();
+    nodes = new HashMap<>();
   }
 
-  public Collection<ClientController> getClientControllers() {
-    return clientControllers.values();
+  public ActorSystem getActorSystem () {
+    return system;
   }
 
-  public void addClient (int id, ClientController clientController) {
-    clientControllers.put(id, clientController);
-    for (Integer i : nodes.keySet()) {
-      clientController.addNode(i);
-    }
+  public ActorRef getNode (int id) {
+    return nodes.get(id);
   }
 
-  public void removeClient (int id) {
-    clientControllers.remove(id);
-    for (ClientController c : clientControllers.values()) {
-      c.removeNode(id);
-    }
+  public Set<Integer> getCurrentNodeIds () {
+    return nodes.keySet();
   }
 
-  public void createNode (int id, int idBootNode, SimpleStringProperty logsProp, SimpleStringProperty storeProp, SimpleIntegerProperty delayProp) throws Exception {
+  public void createNode (int id, int idBootNode, NodeHooks hooks) throws Exception {
     // Check id
     if (id < 0) {
       throw new Exception("ID must be greater than zero");
@@ -92,22 +51,6 @@ public class KeyValStoreSystem {
       throw new Exception("Duplicate ID " + id);
     }
 
-    // Binding node logs to TextArea
-    logsMap.put(id, new ArrayList<String>() {
-      @Override
-      public boolean add (String s) {
-        boolean res = super.add(s);
-        if (res) {
-          logsProp.setValue(String.join("\n", this));
-        }
-        return res;
-      }
-    });
-
-    // Binding node stores to TextArea
-    storesMap.put(id, storeProp);
-    delaysMap.put(id, delayProp);    
-    
     // Select boot node; if the id is not valid (crashed or absent) take the first node valid in the list
     ActorRef bootNode = nodes.get(idBootNode);
     if (!nodes.isEmpty() && (bootNode == null || crashed.contains(idBootNode))) {
@@ -120,38 +63,60 @@ public class KeyValStoreSystem {
       if (bootNode == null) { throw new Exception("Node "+ id +" cannot join the system"); }
     }
 
+    spawnNode(id, bootNode, hooks);
+  }
+
+  /**
+   * Creates a node which joins the nodes of other processes (remote mode, see main.RemoteNode)
+   * @param seed Address of the system of a node already in the store (e.g. akka://distr-key-val-system@host:25520),
+   *             or empty to start a new store
+   */
+  public void createNode (int id, String seed, NodeHooks hooks) throws Exception {
+    if (nodes.containsKey(id)) {
+      throw new Exception("Duplicate ID " + id);
+    }
+    spawnNode(id, seed.isEmpty() ? null : resolveNode(seed), hooks);
+  }
+
+  private void spawnNode (int id, ActorRef bootNode, NodeHooks hooks) {
     // Creating Actor (Node)
-    ActorRef node = system.actorOf(Node.props(id, bootNode), "Node_" + id);
+    ActorRef node = system.actorOf(Node.props(id, bootNode, hooks), "Node_" + id);
 
     nodes.put(id, node);
-    for (ClientController c : clientControllers.values()) {
-      c.addNode(id);
-    }
+  }
+
+  /**
+   * @param address Address of the system hosting a node
+   * @return The node (the first one answering, if the system hosts several)
+   */
+  public ActorRef resolveNode (String address) throws Exception {
+    return system.actorSelection(address + "/user/Node_*").resolveOne(RESOLVE_TIMEOUT).toCompletableFuture().get();
+  }
+
+  /**
+   * @param address Address of the system hosting a node
+   * @return All the nodes of the store, by id, as known by that node
+   */
+  public Map<Integer, ActorRef> discoverNodes (String address) throws Exception {
+    ActorRef node = resolveNode(address);
+    Node.GetNodesResponse res = (Node.GetNodesResponse) Patterns.ask(node, new Node.GetNodes(-1), RESOLVE_TIMEOUT).toCompletableFuture().get();
+    Map<Integer, ActorRef> all = new HashMap<>(res.nodes);
+    all.put(res.idSender, node);
+    return all;
   }
 
   public void nodeLeaves (int id) {
     ActorRef leavingNode = nodes.get(id);
+    // The node stops itself once its items have been handed over
     leavingNode.tell(new Node.NodeLeave(), ActorRef.noSender());
-    system.stop(leavingNode);
     nodes.remove(id);
-    removeClient(id);
   }
 
-  public void get (ActorRef clientActor, int clientId, int coordinatorId, int key) {
-    if (clientControllers.get(clientId) != null) {
-      clientControllers.get(clientId).addFeedback("Requesting get(" + key + ") to node " + coordinatorId);
-    } else {
-      System.out.println("ERROR " + clientId + " " + key);
-    }
+  public void get (ActorRef clientActor, int coordinatorId, int key) {
     nodes.get(coordinatorId).tell(new Node.Get(key), clientActor);
   }
-  
-  public void update (ActorRef clientActor, int clientId, int coordinatorId, int key, String value) {
-    if (clientControllers.get(clientId) != null) {
-      clientControllers.get(clientId).addFeedback("Requesting update(" + key + ", " + value + ") to node " + coordinatorId);
-    } else {
-      System.out.println("ERROR " + clientId + " " + key);
-    }
+
+  public void update (ActorRef clientActor, int coordinatorId, int key, String value) {
     nodes.get(coordinatorId).tell(new Node.Update(key, value), clientActor);
   }
 
@@ -176,8 +141,4 @@ public class KeyValStoreSystem {
     nodes.get(nodeId).tell(new Node.Recovery(recoveryNode), null);
     crashed.remove(nodeId);
   }
-
-  public void setDelay (int nodeId, int millis) {
-    delaysMap.get(nodeId).setValue(millis);
-  }
 }
\ No newline at end of file
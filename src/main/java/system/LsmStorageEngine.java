@@ -0,0 +1,519 @@
+package system;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Log-structured storage: writes go to a sorted in-memory memtable, which is written to an immutable sorted
+ * segment file once it holds memtableSize items. Segments are memory-mapped, so their items live off-heap in the
+ * page cache; a lookup is a binary search over the index of each segment, newest first.
+ * Segment writes and compactions (merge of all the segments into one, once there are more than maxSegments)
+ * run on a shared background thread while the node keeps serving from the frozen memtable and the old segments.
+ * Removals are recorded as tombstones, dropped by the compactions. A compaction writes its result apart and
+ * publishes it only once the segments it merged are deleted; a compaction interrupted by a crash after its result
+ * is complete is finished when the engine is opened, so a dropped tombstone never lets an older value reappear.
+ * The memtable is not persisted until it is written: after a crash the write-ahead log restores it.
+ */
+public class LsmStorageEngine implements StorageEngine {
+
+  private static final int MAGIC = 0x4b565331; // "KVS1"
+  private static final int NULL_VALUE = -1, TOMBSTONE_VALUE = -2;
+  private static final StoreValue TOMBSTONE = new StoreValue(null, Integer.MIN_VALUE);
+
+  private static final ExecutorService background = Executors.newSingleThreadExecutor(r -> {
+    Thread t = new Thread(r, "kvstore-lsm");
+    t.setDaemon(true);
+    return t;
+  });
+
+  /**
+   * The tables shared with the background thread, replaced as a whole (never modified)
+   */
+  private static final class Tables {
+    final NavigableMap<Integer, StoreValue> frozen; // Memtable being written (null if none)
+    final List<Segment> segments;                   // Newest first
+    Tables(NavigableMap<Integer, StoreValue> frozen, List<Segment> segments) {
+      this.frozen = frozen;
+      this.segments = segments;
+    }
+  }
+
+  private final Path dir;
+  private final int memtableSize, maxSegments;
+  private TreeMap<Integer, StoreValue> memtable = new TreeMap<>();
+  private volatile Tables tables;
+  private Future<?> pendingWrite;
+  private volatile RuntimeException compactionFailure; // Thrown to the node by the next memtable write
+  private long nextSeq;
+  private int size;
+
+  /**
+   * Opens the engine, loading the segments already in the directory
+   * @param dir          Directory of the segments
+   * @param memtableSize Items of the memtable that trigger its write
+   * @param maxSegments  Segments that trigger a compaction
+   */
+  public LsmStorageEngine(Path dir, int memtableSize, int maxSegments) throws IOException {
+    this.dir = dir;
+    this.memtableSize = memtableSize;
+    this.maxSegments = maxSegments;
+    Files.createDirectories(dir);
+
+    List<Path> files = new ArrayList<>();
+    long compacted = -1;
+    try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+      for (Path file : entries) {
+        String name = file.getFileName().toString();
+        if (name.endsWith(".tmp")) {
+          Files.delete(file); // Interrupted write
+        } else if (name.startsWith("segment-") && name.endsWith(".sst")) {
+          files.add(file);
+        } else if (name.startsWith("segment-") && name.endsWith(".compacted")) {
+          compacted = seqOf(file);
+        }
+      }
+    }
+    if (compacted >= 0) {
+      // Compaction interrupted after its result was written: it replaces all the segments it merged
+      for (Iterator<Path> it = files.iterator(); it.hasNext(); ) {
+        Path file = it.next();
+        if (seqOf(file) < compacted) {
+          Files.delete(file);
+          it.remove();
+        }
+      }
+      Files.move(compactedPath(compacted), segmentPath(compacted), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      if (!files.contains(segmentPath(compacted))) { files.add(segmentPath(compacted)); }
+    }
+    List<Segment> segments = new ArrayList<>();
+    for (Path file : files) {
+      Segment s = Segment.open(file, seqOf(file));
+      segments.add(s);
+      nextSeq = Math.max(nextSeq, s.seq + 1);
+    }
+    segments.sort((a, b) -> Long.compare(b.seq, a.seq));
+    tables = new Tables(null, segments);
+    forEach((key, value) -> size++);
+  }
+
+  /* -------------------------------------- READS AND WRITES ---------------------------------------- */
+
+  /**
+   * @return The newest value of the key, TOMBSTONE if it was removed, null if unknown
+   */
+  private StoreValue lookup(int key) {
+    StoreValue value = memtable.get(key);
+    if (value != null) { return value; }
+    Tables t = tables;
+    if (t.frozen != null && (value = t.frozen.get(key)) != null) { return value; }
+    for (Segment s : t.segments) {
+      int i = s.find(key);
+      if (i >= 0) { return s.valueAt(i); }
+    }
+    return null;
+  }
+
+  @Override
+  public StoreValue get(int key) {
+    StoreValue value = lookup(key);
+    return value == TOMBSTONE ? null : value;
+  }
+
+  @Override
+  public void put(int key, StoreValue value) {
+    if (get(key) == null) { size++; }
+    memtable.put(key, value);
+    if (memtable.size() >= memtableSize) { writeMemtable(); }
+  }
+
+  @Override
+  public StoreValue remove(int key) {
+    StoreValue old = get(key);
+    if (old == null) { return null; }
+    size--;
+    Tables t = tables;
+    if (t.frozen == null && t.segments.isEmpty()) {
+      memtable.remove(key); // No older copy to shadow
+    } else {
+      memtable.put(key, TOMBSTONE);
+      if (memtable.size() >= memtableSize) { writeMemtable(); }
+    }
+    return old;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public void forEach(Visitor visitor) {
+    scan(Integer.MIN_VALUE, (long) Integer.MAX_VALUE + 1, visitor);
+  }
+
+  @Override
+  public void forEachInRange(int from, int to, Visitor visitor) {
+    scan(from, to, visitor);
+  }
+
+  /**
+   * Visits the live items with keys in [from, to) in key order, merging memtables and segments
+   */
+  private void scan(long from, long to, Visitor visitor) {
+    if (from >= to) { return; }
+    Tables t = tables;
+    List<Cursor> cursors = new ArrayList<>(); // Newest first
+    cursors.add(new MapCursor(memtable.subMap((int) from, true, (int) (to - 1), true)));
+    if (t.frozen != null) { cursors.add(new MapCursor(t.frozen.subMap((int) from, true, (int) (to - 1), true))); }
+    for (Segment s : t.segments) { cursors.add(new SegmentCursor(s, from, to)); }
+    for (Cursor c = new MergeCursor(cursors); c.valid(); c.next()) {
+      visitor.visit(c.key(), c.value());
+    }
+  }
+
+  /**
+   * The view copies only the memtable: the frozen memtable and the segments are immutable, and the mapping of a
+   * segment stays valid even if a compaction deletes its file
+   */
+  @Override
+  public Snapshot snapshot() {
+    TreeMap<Integer, StoreValue> memtableCopy = new TreeMap<>(memtable);
+    Tables t = tables;
+    return new Snapshot() {
+      @Override
+      public void forEach(Visitor visitor) {
+        List<Cursor> cursors = new ArrayList<>();
+        cursors.add(new MapCursor(memtableCopy));
+        if (t.frozen != null) { cursors.add(new MapCursor(t.frozen)); }
+        for (Segment s : t.segments) { cursors.add(new SegmentCursor(s, Integer.MIN_VALUE, (long) Integer.MAX_VALUE + 1)); }
+        for (Cursor c = new MergeCursor(cursors); c.valid(); c.next()) {
+          visitor.visit(c.key(), c.value());
+        }
+      }
+      @Override
+      public void release() {}
+    };
+  }
+
+  @Override
+  public void clear() {
+    awaitBackground();
+    for (Segment s : tables.segments) { s.delete(); }
+    memtable = new TreeMap<>();
+    tables = new Tables(null, new ArrayList<>());
+    size = 0;
+  }
+
+  @Override
+  public void close() {
+    if (!memtable.isEmpty()) { writeMemtable(); }
+    awaitBackground();
+  }
+
+  /* -------------------------------------- BACKGROUND WORK ---------------------------------------- */
+
+  /**
+   * Freezes the memtable and writes it as a new segment in background
+   */
+  private void writeMemtable() {
+    if (compactionFailure != null) { throw new IllegalStateException("Compaction failed", compactionFailure); }
+    await(pendingWrite); // At most one frozen memtable
+    TreeMap<Integer, StoreValue> frozen = memtable;
+    long seq = nextSeq++;
+    memtable = new TreeMap<>();
+    synchronized (this) { tables = new Tables(frozen, tables.segments); }
+
+    pendingWrite = background.submit(() -> {
+      Segment segment = Segment.write(segmentPath(seq), seq, new MapCursor(frozen));
+      synchronized (this) {
+        List<Segment> segments = new ArrayList<>();
+        segments.add(segment);
+        segments.addAll(tables.segments);
+        tables = new Tables(null, segments);
+      }
+      if (tables.segments.size() > maxSegments) {
+        background.execute(() -> {
+          try {
+            compact();
+          } catch (RuntimeException e) {
+            compactionFailure = e;
+          }
+        });
+      }
+      return null;
+    });
+  }
+
+  /**
+   * Merges all the segments in one, which replaces the newest of them; runs on the background thread
+   */
+  private void compact() {
+    List<Segment> merged = tables.segments; // Only this thread adds segments, so the list cannot change meanwhile
+    if (merged.size() <= maxSegments) { return; }
+    Segment newest = merged.get(0);
+    List<Cursor> cursors = new ArrayList<>();
+    for (Segment s : merged) { cursors.add(new SegmentCursor(s, Integer.MIN_VALUE, (long) Integer.MAX_VALUE + 1)); }
+
+    // The merge drops the tombstones, so it is published only once no older segment is left for them to shadow;
+    // the mappings of the deleted segments stay valid for the readers meanwhile
+    Segment compacted = Segment.write(compactedPath(newest.seq), newest.seq, new MergeCursor(cursors));
+    for (Segment s : merged.subList(1, merged.size())) { s.delete(); }
+    compacted = compacted.moveTo(segmentPath(newest.seq));
+    synchronized (this) { tables = new Tables(tables.frozen, Collections.singletonList(compacted)); }
+  }
+
+  private Path segmentPath(long seq) {
+    return dir.resolve(String.format("segment-%012d.sst", seq));
+  }
+
+  private Path compactedPath(long seq) {
+    return dir.resolve(String.format("segment-%012d.compacted", seq));
+  }
+
+  private static long seqOf(Path file) {
+    String name = file.getFileName().toString();
+    return Long.parseLong(name.substring(8, name.indexOf('.')));
+  }
+
+  private static void await(Future<?> future) {
+    if (future == null) { return; }
+    try {
+      future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Segment write failed", e.getCause());
+    }
+  }
+
+  /**
+   * Waits for the pending segment write and for the compaction it may have started
+   */
+  private void awaitBackground() {
+    await(pendingWrite);
+    await(background.submit(() -> {}));
+  }
+
+  /* -------------------------------------- CURSORS ---------------------------------------- */
+
+  private interface Cursor {
+    boolean valid();
+    int key();
+    StoreValue value();
+    void next();
+  }
+
+  private static final class MapCursor implements Cursor {
+    private final Iterator<Map.Entry<Integer, StoreValue>> it;
+    private Map.Entry<Integer, StoreValue> current;
+    MapCursor(NavigableMap<Integer, StoreValue> map) {
+      it = map.entrySet().iterator();
+      next();
+    }
+    public boolean valid() { return current != null; }
+    public int key() { return current.getKey(); }
+    public StoreValue value() { return current.getValue(); }
+    public void next() { current = it.hasNext() ? it.next() : null; }
+  }
+
+  /**
+   * Live items of several cursors in key order; for equal keys the first (newest) cursor wins
+   */
+  private static final class MergeCursor implements Cursor {
+    private final List<Cursor> sources;
+    private boolean valid;
+    private int key;
+    private StoreValue value;
+    MergeCursor(List<Cursor> sources) {
+      this.sources = sources;
+      next();
+    }
+    public boolean valid() { return valid; }
+    public int key() { return key; }
+    public StoreValue value() { return value; }
+    public void next() {
+      while (true) {
+        Cursor min = null;
+        for (Cursor c : sources) {
+          if (c.valid() && (min == null || c.key() < min.key())) { min = c; }
+        }
+        if (min == null) {
+          valid = false;
+          return;
+        }
+        key = min.key();
+        value = min.value();
+        for (Cursor c : sources) {
+          if (c.valid() && c.key() == key) { c.next(); }
+        }
+        if (value != TOMBSTONE) {
+          valid = true;
+          return;
+        }
+      }
+    }
+  }
+
+  private static final class SegmentCursor implements Cursor {
+    private final Segment segment;
+    private final int end;
+    private int i;
+    SegmentCursor(Segment segment, long from, long to) {
+      this.segment = segment;
+      this.i = segment.lowerBound(from);
+      this.end = segment.lowerBound(to);
+    }
+    public boolean valid() { return i < end; }
+    public int key() { return segment.keyAt(i); }
+    public StoreValue value() { return segment.valueAt(i); }
+    public void next() { i++; }
+  }
+
+  /* -------------------------------------- SEGMENTS ---------------------------------------- */
+
+  /**
+   * Immutable sorted file: [items][keys][offsets of the items][count][magic], item = [version][length][UTF-8 bytes]
+   */
+  private static final class Segment {
+    final long seq;
+    final Path path;
+    final MappedByteBuffer buf;
+    final int count, keysStart, offsetsStart;
+
+    private Segment(long seq, Path path, MappedByteBuffer buf) throws IOException {
+      this.seq = seq;
+      this.path = path;
+      this.buf = buf;
+      int footer = buf.capacity() - 8;
+      if (footer < 0 || buf.getInt(footer + 4) != MAGIC) { throw new IOException("Invalid segment " + path); }
+      this.count = buf.getInt(footer);
+      this.keysStart = footer - 8 * count;
+      this.offsetsStart = footer - 4 * count;
+    }
+
+    static Segment open(Path path, long seq) throws IOException {
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+        return new Segment(seq, path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+      }
+    }
+
+    /**
+     * Writes the items of a cursor (in key order) to a new segment, atomically replacing the file if it exists
+     */
+    static Segment write(Path path, long seq, Cursor items) {
+      Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+      try {
+        int[] keys = new int[1024], offsets = new int[1024];
+        int count = 0, offset = 0;
+        try (FileOutputStream file = new FileOutputStream(tmp.toFile())) {
+          DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16));
+          for (; items.valid(); items.next()) {
+            if (count == keys.length) {
+              keys = Arrays.copyOf(keys, count * 2);
+              offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            keys[count] = items.key();
+            offsets[count++] = offset;
+            StoreValue value = items.value();
+            byte[] bytes = value == TOMBSTONE || value.getValue() == null ? null : value.getValue().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(value.getVersion());
+            out.writeInt(value == TOMBSTONE ? TOMBSTONE_VALUE : bytes == null ? NULL_VALUE : bytes.length);
+            if (bytes != null) { out.write(bytes); }
+            offset += 8 + (bytes == null ? 0 : bytes.length);
+          }
+          for (int i = 0; i < count; ++i) { out.writeInt(keys[i]); }
+          for (int i = 0; i < count; ++i) { out.writeInt(offsets[i]); }
+          out.writeInt(count);
+          out.writeInt(MAGIC);
+          out.flush();
+          file.getFD().sync();
+        }
+        Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return open(path, seq);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    int keyAt(int i) {
+      return buf.getInt(keysStart + 4 * i);
+    }
+
+    /**
+     * @return The index of the first key not lower than the given one
+     */
+    int lowerBound(long key) {
+      int lo = 0, hi = count;
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (keyAt(mid) < key) { lo = mid + 1; } else { hi = mid; }
+      }
+      return lo;
+    }
+
+    /**
+     * @return The index of the key, or -1 if the segment does not hold it
+     */
+    int find(int key) {
+      int i = lowerBound(key);
+      return i < count && keyAt(i) == key ? i : -1;
+    }
+
+    StoreValue valueAt(int i) {
+      int offset = buf.getInt(offsetsStart + 4 * i);
+      int version = buf.getInt(offset);
+      int length = buf.getInt(offset + 4);
+      if (length == TOMBSTONE_VALUE) { return TOMBSTONE; }
+      if (length == NULL_VALUE) { return new StoreValue(null, version); }
+      byte[] bytes = new byte[length];
+      ByteBuffer view = buf.duplicate();
+      view.position(offset + 8);
+      view.get(bytes);
+      return new StoreValue(new String(bytes, StandardCharsets.UTF_8), version);
+    }
+
+    /**
+     * Renames the file, atomically replacing the target; the mapping is kept
+     */
+    Segment moveTo(Path target) {
+      try {
+        Files.move(path, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return new Segment(seq, target, buf);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    void delete() {
+      try {
+        Files.deleteIfExists(path);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,104 @@
+package system;
+
+/**
+ * Storage of the items in a heap map with primitive int keys (default engine).
+ * While a snapshot is active the map is frozen and the changes go to an overlay (REMOVED marks a removal),
+ * merged back into the map when the snapshot is released.
+ */
+public class MemoryStorageEngine implements StorageEngine {
+
+  private static final StoreValue REMOVED = new StoreValue(null, -1);
+
+  private IntMap<StoreValue> items = new IntMap<>();
+  private IntMap<StoreValue> overlay;         // Changes during a snapshot (null if no snapshot is active)
+  private int size;                           // Items counted through the overlay
+
+  @Override
+  public StoreValue get(int key) {
+    if (overlay != null) {
+      StoreValue value = overlay.get(key);
+      if (value != null) { return value == REMOVED ? null : value; }
+    }
+    return items.get(key);
+  }
+
+  @Override
+  public void put(int key, StoreValue value) {
+    if (overlay == null) {
+      items.put(key, value);
+      return;
+    }
+    if (get(key) == null) { size++; }
+    overlay.put(key, value);
+  }
+
+  @Override
+  public StoreValue remove(int key) {
+    if (overlay == null) { return items.remove(key); }
+    StoreValue old = get(key);
+    if (old != null) {
+      size--;
+      overlay.put(key, REMOVED);
+    }
+    return old;
+  }
+
+  @Override
+  public int size() {
+    return overlay == null ? items.size() : size;
+  }
+
+  @Override
+  public void forEach(Visitor visitor) {
+    forEachInRange(Integer.MIN_VALUE, Integer.MAX_VALUE, true, visitor);
+  }
+
+  @Override
+  public void forEachInRange(int from, int to, Visitor visitor) {
+    forEachInRange(from, to, false, visitor);
+  }
+
+  private void forEachInRange(int from, int to, boolean all, Visitor visitor) {
+    items.forEach((key, value) -> {
+      if ((all || (key >= from && key < to)) && (overlay == null || !overlay.containsKey(key))) { visitor.visit(key, value); }
+    });
+    if (overlay == null) { return; }
+    overlay.forEach((key, value) -> {
+      if ((all || (key >= from && key < to)) && value != REMOVED) { visitor.visit(key, value); }
+    });
+  }
+
+  @Override
+  public int[] keys() {
+    return overlay == null ? items.keys() : StorageEngine.super.keys();
+  }
+
+  @Override
+  public Snapshot snapshot() {
+    if (overlay != null) { throw new IllegalStateException("A snapshot is already active"); }
+    IntMap<StoreValue> frozen = items;
+    size = items.size();
+    overlay = new IntMap<>();
+    return new Snapshot() {
+      @Override
+      public void forEach(Visitor visitor) {
+        frozen.forEach(visitor::visit);
+      }
+      @Override
+      public void release() {
+        if (overlay == null || items != frozen) { return; } // Cleared meanwhile
+        overlay.forEach((key, value) -> {
+          if (value == REMOVED) { items.remove(key); } else { items.put(key, value); }
+        });
+        overlay = null;
+      }
+    };
+  }
+
+  @Override
+  public void clear() {
+    // A frozen map may be still visited by a snapshot: it is replaced instead of cleared
+    items = new IntMap<>();
+    overlay = null;
+  }
+}
@@ -1,71 +1,209 @@
 package system;
 
+import java.io.IOException;
 import java.io.Serializable;
-import java.text.SimpleDateFormat;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.HashMap;
-import java.util.Set;
 import java.util.HashSet;
-import java.util.Formatter;
+import java.util.Set;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.StringJoiner;
+import java.util.concurrent.ThreadLocalRandom;
 
-import akka.actor.AbstractActor;
+import akka.actor.AbstractActorWithTimers;
 import akka.actor.ActorRef;
 import akka.actor.Props;
 
-import javafx.application.Platform;
+import com.typesafe.config.Config;
 
+import system.NodeLog.Event;
 import system.PendingRequest.ACT;
 
-public class Node extends AbstractActor {
+public class Node extends AbstractActorWithTimers {
 
-  public static final int T = 2000; // Timeout
-  public static final int N = 3;    // Number of replicas
-  public static final int R = 2;    // Read quorum
-  public static final int W = 2;    // Write quorum
-  
+  private final int replicas;                                                 // Replicas of each item (N)
+  private final int readQuorum, writeQuorum;                                  // Default quorums of the GETs and UPDATEs (R, W)
+  private final long timeout;                                                 // Default time (ms) to reach a quorum (T)
+  private final boolean adaptiveTimeouts;                                     // Whether the timeouts follow the latency of the peers asked
+  private final double timeoutMultiplier;                                     // Multiple of the latency bound of the peers waited for
+  private final long minTimeout;                                              // Lower bound of the adaptive timeouts (ms)
+  private long nodesAskedAt;                                                  // Time the list of nodes was asked (nanoseconds)
   private int reqCount;                                                       // Request counter for each node (not global)
   private boolean crashed, recovering;                                        // Status flags
-  private Map<Integer, PendingRequest.Request<StoreValue>> pendingRequests;   // Pending requests which are coordinated by the node
-  private Set<Integer> pendingUpdates;                                        // Pending updates in the whole system
+  private IntMap<PendingRequest.Request<StoreValue>> pendingRequests;         // Pending requests which are coordinated by the node
+  private IntMap<PendingRequest.Multi<StoreValue>> pendingMulti;              // Pending multi-key requests which are coordinated by the node
+  private KeyLocks pendingUpdates;                                            // Keys locked by the updates in progress, with their waiting requests
   private PendingRequest.Join<StoreValue> pendingJoinOrRecovery;              // Pending join/recovery request
+  private Ring ring, peersRing;                                               // Ring of the nodes with and without the node itself
+  private final int vnodes;                                                   // Virtual nodes per node (0 = keys placed on node ids)
+  private long ignoredGets, timeouts, readRepairs, gets, hedges;              // Counters exported through Stats
+  private final WriteAheadLog wal;                                            // Log of the changes to the store (null if disabled)
+  private final StoreSnapshot snapshot;                                       // Snapshot file of the store (null if disabled)
+  private final Duration snapshotInterval;
+  private StorageEngine.Snapshot snapshotView;                                // View being written (null if none)
+  private final int digestBuckets;                                            // Buckets of the digests exchanged by the replicas
+  private IntMap<long[]> digests;                                             // Digest of the items shared with each node of the ring, kept up to date (null until needed)
+  private Ring joinRing;                                                      // Ring including the last joining node asked for (null if none)
+  private int joinRingId;
+  private final Duration repairInterval;                                      // Interval of the background repair (zero if disabled)
+  private long repairedItems;                                                 // Items updated by the background repair
+  private final int chunkSize, transferWindow;                                // Items per chunk, chunks in flight per stream
+  private int streamCount;                                                    // Stream counter for each node
+  private Map<Integer, PartitionTransfer.Outgoing> outgoing;                  // Streams sent by the node
+  private Map<ActorRef, Map<Integer, PartitionTransfer.Incoming>> incoming;   // Streams in progress towards the node, by sender
+  private PartitionTransfer.Finished finished;                                // Last streams received completely
+  private int pendingHandoffs = -1;                                           // Streams still to complete before leaving (-1 if not leaving)
+  private final Set<Integer> failedHandoffs = new HashSet<>();                // Nodes that did not ack a handoff of the leaving node
+  private final HintStore hints;                                              // Writes held for crashed replicas (null if disabled)
+  private final Duration hintInterval;                                        // Interval of the attempts to deliver the hints
+  private Map<Integer, Long> awaiting;                                        // Since when each peer has been asked without answering
+  private final boolean readRepair;                                           // Whether stale replicas are repaired on GET
+  private final Duration readRepairInterval;                                  // Interval between two batches of repairs to a node
+  private final int readRepairBatch, readRepairPending;                       // Items per batch, items queued per node
+  private Map<Integer, Map<Integer, StoreValue>> readRepairQueues;            // Repairs waiting to be sent, by node
+  private Map<Integer, PendingRequest.Request<StoreValue>> completedRequests; // Last requests completed, to handle the late answers
+  private final boolean hedgedReads;                                          // Whether GETs ask only a quorum of replicas and hedge
+  private final double hedgePercentile;                                       // Percentile of the answer latencies used as hedge delay
+  private final long minHedgeDelay, maxHedgeDelay;                            // Bounds of the hedge delay (microseconds)
+  private final int hedgeWindow;                                              // Latencies observed before the hedge delay is updated
+  private long hedgeDelay;                                                    // Current hedge delay (microseconds)
+  private Histogram readLatency;                                              // Answer latencies of the current window (microseconds)
+  private PeerLatencies peerLatencies;                                        // Answer latency of each node
 
   protected int idNode;                       // Node ID
+  protected NodeHooks hooks;                  // Hooks exposing the state of the node (e.g. to the UI)
+  protected StoreListener storeListener;      // Listener notified of every change to the store
+  protected NodeLog log;                      // Structured log of the node
   protected ActorRef bootNode;                // Node to contact for the list of nodes in the system
   protected Map<Integer, ActorRef> nodes;     // List of nodes in the system
-  protected Map<Integer, StoreValue> store;   // Store of the items
+  private Map<ActorRef, Integer> ids;         // Ids of the nodes in the system, by actor (kept along with nodes)
+  protected StorageEngine store;              // Store of the items
 
   /* -------------------------------------- PUBLIC MESSAGE INTERFACE (CLIENT-NODE) ---------------------------------------- */
   
   public static class NodeLeave implements Serializable {}
 
+  // Client requests carry an optional id (-1 if none) which is echoed in the feedback, to correlate the two
+
+  /**
+   * Answers a GET or UPDATE needs: one replica, a majority of the N replicas, all of them, or the configured R/W
+   */
+  public static enum CONSISTENCY { DEFAULT, ONE, QUORUM, ALL };
+
   public static class Get implements Serializable { 
     public final int key;
+    public final long reqId;
+    public final CONSISTENCY consistency;
+    public final int timeout;   // Time (ms) to reach the quorum, 0 for the configured one
     public Get(int key) {
+      this(key, -1);
+    }
+    public Get(int key, long reqId) {
+      this(key, reqId, CONSISTENCY.DEFAULT, 0);
+    }
+    public Get(int key, long reqId, CONSISTENCY consistency, int timeout) {
       this.key = key;
+      this.reqId = reqId;
+      this.consistency = consistency;
+      this.timeout = timeout;
     }
   }
 
   public static class Update implements Serializable { 
     public final int key;
     public final String value;
+    public final long reqId;
+    public final CONSISTENCY consistency;
+    public final int timeout;   // Time (ms) to reach the quorum, 0 for the configured one
     public Update(int key, String value) {
+      this(key, value, -1);
+    }
+    public Update(int key, String value, long reqId) {
+      this(key, value, reqId, CONSISTENCY.DEFAULT, 0);
+    }
+    public Update(int key, String value, long reqId, CONSISTENCY consistency, int timeout) {
       this.key = key;
       this.value = value;
+      this.reqId = reqId;
+      this.consistency = consistency;
+      this.timeout = timeout;
     }
   }
 
   public static enum STATUS { OK,  ERROR };
   public static class Feedback implements Serializable {
-    public final String feedback;
-    public Feedback(Integer key, StoreValue value, STATUS status, ACT act) {
-      String str = "Feedback for " + act + "(" + key;
-      if (value != null) { str += " -> " + value; }
-      str += ")   [" + status + "]";
-      this.feedback = str;
+    public final long reqId;
+    public final int key;
+    public final StoreValue value;  // Value read or written (null on ERROR)
+    public final STATUS status;
+    public final ACT act;
+    public Feedback(long reqId, int key, StoreValue value, STATUS status, ACT act) {
+      this.reqId = reqId;
+      this.key = key;
+      this.value = value;
+      this.status = status;
+      this.act = act;
+    }
+    public int getVersion() {
+      return value == null ? -1 : value.getVersion();
+    }
+    @Override
+    public String toString() {
+      return "Feedback for " + act + "(" + key + (value != null ? " -> " + value : "") + ")   [" + status + "]";
+    }
+  }
+
+  public static class MultiGet implements Serializable {
+    public final int[] keys;
+    public final long reqId;
+    public MultiGet(int[] keys) {
+      this(keys, -1);
+    }
+    public MultiGet(int[] keys, long reqId) {
+      this.keys = keys;
+      this.reqId = reqId;
+    }
+  }
+
+  public static class MultiUpdate implements Serializable {
+    public final Map<Integer, String> values;
+    public final long reqId;
+    public MultiUpdate(Map<Integer, String> values) {
+      this(values, -1);
+    }
+    public MultiUpdate(Map<Integer, String> values, long reqId) {
+      this.values = Collections.unmodifiableMap(new HashMap<>(values));
+      this.reqId = reqId;
+    }
+  }
+
+  public static class MultiFeedback implements Serializable {
+    public final long reqId;
+    public final ACT act;
+    public final int[] keys;
+    public final StoreValue[] values;   // Values read (GET only)
+    public final STATUS[] statuses;
+    public MultiFeedback(long reqId, ACT act, int[] keys, List<StoreValue> values, STATUS[] statuses) {
+      this.reqId = reqId;
+      this.act = act;
+      this.keys = keys;
+      this.values = values.toArray(new StoreValue[0]);
+      this.statuses = statuses;
+    }
+    @Override
+    public String toString() {
+      StringJoiner sj = new StringJoiner(", ", "Feedback for MULTI_" + act + "(", ")");
+      for (int i = 0; i < keys.length; ++i) {
+        sj.add(keys[i] + (values[i] != null ? " -> " + values[i] : "") + " [" + statuses[i] + "]");
+      }
+      return sj.toString();
     }
   }
 
@@ -78,32 +216,55 @@ public class Node extends AbstractActor {
     }
   }
 
+  public static class GetStats implements Serializable {}
+
+  // Writes a snapshot of the store (also sent periodically by the node itself, if snapshots are enabled)
+  public static class TakeSnapshot implements Serializable {
+    public static final TakeSnapshot INSTANCE = new TakeSnapshot();
+  }
+
+  public static class Stats implements Serializable {
+    public final int idNode;
+    public final long ignoredGets, timeouts, repairedItems, readRepairs;
+    public final long gets, hedges;   // GETs coordinated, extra replicas asked because of slow answers
+    public Stats(int idNode, long ignoredGets, long timeouts, long repairedItems, long readRepairs, long gets, long hedges) {
+      this.idNode = idNode;
+      this.ignoredGets = ignoredGets;
+      this.timeouts = timeouts;
+      this.repairedItems = repairedItems;
+      this.readRepairs = readRepairs;
+      this.gets = gets;
+      this.hedges = hedges;
+    }
+  }
+
   /* -------------------------------------- PRIVATE MESSAGE INTERFACE (NODE-NODE) ---------------------------------------- */
+
+  // Package-private, so that benchmarks and serializers in the package can build them
   
-  private static class NodeHello implements Serializable {
+  static class NodeHello implements Serializable {
     public final int idSender;
     public NodeHello(int idSender) {
       this.idSender = idSender;
     }
   }
   
-  private static class NodeGoodbye implements Serializable {
+  // Sent by a leaving node once its items have been streamed to their new owners
+  static class NodeGoodbye implements Serializable {
     public final int idSender;
-    public final Map<Integer, StoreValue> items;
-    public NodeGoodbye(int idSender, Map<Integer, StoreValue> items) {
+    public NodeGoodbye(int idSender) {
       this.idSender = idSender;
-      this.items = Collections.unmodifiableMap(new HashMap<>(items));
     }
   }
 
-  private static class GetNodes implements Serializable {
+  static class GetNodes implements Serializable {
     public final int idNew;
     public GetNodes(int idNew) {
       this.idNew = idNew;
     }
   }
 
-  private static class GetNodesResponse implements Serializable {
+  static class GetNodesResponse implements Serializable {
     public final int idSender;
     public final Map<Integer, ActorRef> nodes;
     public GetNodesResponse(int idSender, Map<Integer, ActorRef> nodes) {
@@ -112,21 +273,63 @@ public class Node extends AbstractActor {
     }
   }
 
-  private static class GetItems implements Serializable {
+  static class GetItems implements Serializable {
+    public final int idSender;
+    public final long[] digest;   // Digest of the items the sender shares with the receiver; only diverged buckets are sent back
+    public GetItems(int idSender, long[] digest) {
+      this.idSender = idSender;
+      this.digest = digest;
+    }
+  }
+
+  // Partition transfers (answer to GetItems, handoff of a leaving node) are streams of bounded chunks
+  static class TransferChunk implements Serializable {
+    public final int streamId, offset, end;   // The chunk covers the offsets [offset, end) of the stream
+    public final PartitionTransfer.KIND kind;
+    public final int[] keys;
+    public final StoreValue[] values;
+    public final boolean last;
+    public TransferChunk(int streamId, int offset, int end, PartitionTransfer.KIND kind, int[] keys, StoreValue[] values, boolean last) {
+      this.streamId = streamId;
+      this.offset = offset;
+      this.end = end;
+      this.kind = kind;
+      this.keys = keys;
+      this.values = values;
+      this.last = last;
+    }
+  }
+
+  static class TransferAck implements Serializable {
+    public final int streamId, offset, credit;  // Offset applied by the receiver, chunks the sender can send beyond it
+    public TransferAck(int streamId, int offset, int credit) {
+      this.streamId = streamId;
+      this.offset = offset;
+      this.credit = credit;
+    }
+  }
+
+  // Background repair between replicas: digest of the shared items, answered with the diverged buckets; each side
+  // then streams its items of those buckets to the other, which keeps the newer ones
+  static class RepairDigest implements Serializable {
     public final int idSender;
-    public GetItems(int idSender) {
+    public final long[] digest;
+    public RepairDigest(int idSender, long[] digest) {
       this.idSender = idSender;
+      this.digest = digest;
     }
   }
 
-  private static class GetItemsResponse implements Serializable {
-    public final Map<Integer, StoreValue> items;
-    public GetItemsResponse(Map<Integer, StoreValue> items) {
-      this.items = Collections.unmodifiableMap(new HashMap<>(items));
+  static class RepairBuckets implements Serializable {
+    public final int idSender;
+    public final boolean[] buckets;   // Diverged buckets
+    public RepairBuckets(int idSender, boolean[] buckets) {
+      this.idSender = idSender;
+      this.buckets = buckets;
     }
   }
 
-  private static class GetItem implements Serializable {
+  static class GetItem implements Serializable {
     public final int reqId, key;
     public final ACT act;
     public GetItem(int reqId, int key, ACT act) {
@@ -136,7 +339,36 @@ public class Node extends AbstractActor {
     }
   }
 
-  private static class GetItemResponse implements Serializable {
+  static class GetItemBatch implements Serializable {
+    public final int[] reqIds, keys;
+    public final ACT act;
+    public GetItemBatch(int[] reqIds, int[] keys, ACT act) {
+      this.reqIds = reqIds;
+      this.keys = keys;
+      this.act = act;
+    }
+  }
+
+  static class GetItemBatchResponse implements Serializable {
+    public final int[] reqIds;
+    public final StoreValue[] values;
+    public GetItemBatchResponse(int[] reqIds, StoreValue[] values) {
+      this.reqIds = reqIds;
+      this.values = values;
+    }
+  }
+
+  static class UpdateItemBatch implements Serializable {
+    public final int[] reqIds, keys;  // Request ids are -1 for repairs
+    public final StoreValue[] values;
+    public UpdateItemBatch(int[] reqIds, int[] keys, StoreValue[] values) {
+      this.reqIds = reqIds;
+      this.keys = keys;
+      this.values = values;
+    }
+  }
+
+  static class GetItemResponse implements Serializable {
     public final int reqId;
     public final StoreValue value;
     public GetItemResponse(int reqId, StoreValue value) {
@@ -145,89 +377,296 @@ public class Node extends AbstractActor {
     }
   }
 
-  private static class UpdateItem implements Serializable {
-    public final int key;
+  static class UpdateItem implements Serializable {
+    public final int reqId, key;  // Request id of the update, -1 for repairs
     public final StoreValue value;
     public UpdateItem(int key, StoreValue value) {
+      this(-1, key, value);
+    }
+    public UpdateItem(int reqId, int key, StoreValue value) {
+      this.reqId = reqId;
       this.key = key;
       this.value = value;
     }
   }  
 
+  static class UnlockItem implements Serializable {
+    public final int reqId, key;    // The lock is released only if still held by the request
+    public UnlockItem(int reqId, int key) {
+      this.reqId = reqId;
+      this.key = key;
+    }
+  }
+
+  static class UpdateHint implements Serializable {
+    public final int reqId, target, key;  // The write is held for the target until it can be delivered
+    public final StoreValue value;
+    public UpdateHint(int reqId, int target, int key, StoreValue value) {
+      this.reqId = reqId;
+      this.target = target;
+      this.key = key;
+      this.value = value;
+    }
+  }
+
+  /**
+   * Accumulates the (id, key, value) entries of a batch addressed to a single node
+   */
+  private static class BatchBuilder {
+    int size;
+    int[] ids = new int[8], keys = new int[8];
+    StoreValue[] values = new StoreValue[8];
+    void add(int id, int key, StoreValue value) {
+      if (size == keys.length) {
+        ids = Arrays.copyOf(ids, size * 2);
+        keys = Arrays.copyOf(keys, size * 2);
+        values = Arrays.copyOf(values, size * 2);
+      }
+      ids[size] = id;
+      keys[size] = key;
+      values[size++] = value;
+    }
+  }
+
+  /* -------------------------------------- TIMER MESSAGE INTERFACE (NODE-SELF) ---------------------------------------- */
+
+  // Timer messages are also used as timer keys, so that a timeout can be cancelled once it is no longer needed
+
+  private static final class RequestTimeout {
+    public final int reqId;
+    public RequestTimeout(int reqId) {
+      this.reqId = reqId;
+    }
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof RequestTimeout && ((RequestTimeout) o).reqId == reqId;
+    }
+    @Override
+    public int hashCode() {
+      return reqId;
+    }
+  }
+
+  private static final class PendingUpdateTimeout {
+    public final int key;
+    public PendingUpdateTimeout(int key) {
+      this.key = key;
+    }
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof PendingUpdateTimeout && ((PendingUpdateTimeout) o).key == key;
+    }
+    @Override
+    public int hashCode() {
+      return key;
+    }
+  }
+
+  private static final class JoinTimeout {
+    public static final JoinTimeout INSTANCE = new JoinTimeout();
+  }
+
+  private static final class TransferTimeout {
+    public final int streamId;
+    public TransferTimeout(int streamId) {
+      this.streamId = streamId;
+    }
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof TransferTimeout && ((TransferTimeout) o).streamId == streamId;
+    }
+    @Override
+    public int hashCode() {
+      return streamId;
+    }
+  }
+
+  private static final class RepairTick {
+    public static final RepairTick INSTANCE = new RepairTick();
+  }
+
+  private static final class HintTick {
+    public static final HintTick INSTANCE = new HintTick();
+  }
+
+  private static final class HedgeTimeout {
+    public final int reqId;
+    public HedgeTimeout(int reqId) {
+      this.reqId = reqId;
+    }
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof HedgeTimeout && ((HedgeTimeout) o).reqId == reqId;
+    }
+    @Override
+    public int hashCode() {
+      return reqId;
+    }
+  }
+
+  private static final class ReadRepairTick {
+    public static final ReadRepairTick INSTANCE = new ReadRepairTick();
+  }
+
+  private static final class SnapshotDone {
+    public final int items;   // Items written, -1 if the snapshot failed
+    public SnapshotDone(int items) {
+      this.items = items;
+    }
+  }
+
   /* -------------------------------------- CLASS ---------------------------------------- */
 
-  public Node(int id, ActorRef bootNode) {
+  public Node(int id, ActorRef bootNode, NodeHooks hooks) throws IOException {
     this.idNode = id;
     this.bootNode = bootNode;
+    this.hooks = hooks;
     this.reqCount = 0;
     this.crashed = false;
     this.recovering = false;
     this.pendingJoinOrRecovery = null;
-    this.pendingUpdates  = new HashSet<>();
-    this.pendingRequests = new HashMap<>();
+    this.pendingUpdates  = new KeyLocks(getContext().getSystem().settings().config().getInt("kvstore.locks.max-queue"));
+    this.pendingRequests = new IntMap<>();
+    this.pendingMulti = new IntMap<>();
     this.nodes = new HashMap<>();
-    this.store = new HashMap<>() {
-      @Override
-      public StoreValue put (Integer key, StoreValue value) {
-        StoreValue res = super.put(key, value);
-        updateStoreUI();
-        return res;
-      }
-      @Override
-      public StoreValue remove (Object key) {
-        StoreValue res = super.remove(key);
-        updateStoreUI();
-        return res;
-      }
+    this.ids = new HashMap<>();
+    this.storeListener = hooks.getStoreListener();
+
+    Config config = getContext().getSystem().settings().config();
+    this.replicas = config.getInt("kvstore.replication.n");
+    this.readQuorum = config.getInt("kvstore.replication.read-quorum");
+    this.writeQuorum = config.getInt("kvstore.replication.write-quorum");
+    this.timeout = config.getDuration("kvstore.replication.timeout").toMillis();
+    this.adaptiveTimeouts = config.getBoolean("kvstore.replication.adaptive-timeout.enabled");
+    this.timeoutMultiplier = config.getDouble("kvstore.replication.adaptive-timeout.multiplier");
+    this.minTimeout = config.getDuration("kvstore.replication.adaptive-timeout.min").toMillis();
+    if (readQuorum < 1 || readQuorum > replicas || writeQuorum < 1 || writeQuorum > replicas) {
+      throw new IllegalArgumentException("The quorums must be between 1 and " + replicas);
+    }
+    this.vnodes = config.getInt("kvstore.vnodes");
+    this.store = StorageEngine.create(config, id);
+    this.log = new NodeLog(id, config.getEnum(NodeLog.Level.class, "kvstore.log.level"), config.getInt("kvstore.log.buffer-size"), hooks);
+    updateRing();
+
+    // A restarted node starts from its last snapshot and the content of its log
+    if (config.getBoolean("kvstore.wal.enabled")) {
+      this.wal = new WriteAheadLog(
+        Paths.get(config.getString("kvstore.wal.dir"), "node-" + id + ".wal"),
+        config.getInt("kvstore.wal.sync-batch"),
+        config.getDuration("kvstore.wal.sync-interval").toMillis(),
+        config.getBoolean("kvstore.wal.fsync")
+      );
+    } else {
+      this.wal = null;
+    }
+    this.snapshot = config.getBoolean("kvstore.snapshot.enabled")
+      ? new StoreSnapshot(Paths.get(config.getString("kvstore.snapshot.dir"), "node-" + id + ".snap"))
+      : null;
+    this.snapshotInterval = config.getDuration("kvstore.snapshot.interval");
+    this.digestBuckets = config.getInt("kvstore.anti-entropy.buckets");
+    this.repairInterval = config.getDuration("kvstore.anti-entropy.repair-interval");
+    this.chunkSize = config.getInt("kvstore.transfer.chunk-size");
+    this.transferWindow = config.getInt("kvstore.transfer.window");
+    this.outgoing = new HashMap<>();
+    this.incoming = new HashMap<>();
+    this.finished = new PartitionTransfer.Finished();
+    this.awaiting = new HashMap<>();
+    if (!config.getBoolean("kvstore.hints.enabled")) {
+      this.hints = null;
+    } else if (config.getBoolean("kvstore.hints.durable")) {
+      this.hints = new HintStore(
+        Paths.get(config.getString("kvstore.hints.dir"), "node-" + id),
+        config.getInt("kvstore.wal.sync-batch"),
+        config.getDuration("kvstore.wal.sync-interval").toMillis(),
+        config.getBoolean("kvstore.wal.fsync")
+      );
+    } else {
+      this.hints = new HintStore();
+    }
+    this.hintInterval = config.getDuration("kvstore.hints.delivery-interval");
+    this.readRepair = config.getBoolean("kvstore.read-repair.enabled");
+    this.readRepairInterval = config.getDuration("kvstore.read-repair.interval");
+    this.readRepairBatch = config.getInt("kvstore.read-repair.max-batch");
+    this.readRepairPending = config.getInt("kvstore.read-repair.max-pending");
+    this.readRepairQueues = new HashMap<>();
+    this.hedgedReads = config.getBoolean("kvstore.hedged-reads.enabled");
+    this.hedgePercentile = config.getDouble("kvstore.hedged-reads.percentile");
+    this.minHedgeDelay = config.getDuration("kvstore.hedged-reads.min-delay").toNanos() / 1000;
+    this.maxHedgeDelay = config.getDuration("kvstore.hedged-reads.max-delay").toNanos() / 1000;
+    this.hedgeWindow = config.getInt("kvstore.hedged-reads.window");
+    this.hedgeDelay = maxHedgeDelay;
+    this.readLatency = new Histogram();
+    this.peerLatencies = new PeerLatencies();
+    int window = config.getInt("kvstore.completed-window");
+    this.completedRequests = new LinkedHashMap<Integer, PendingRequest.Request<StoreValue>>(16, 0.75f, false) {
       @Override
-      public String toString () {
-        if (store.isEmpty()) {
-          return "Empty store!!";
-        }
-        StringJoiner sj = new StringJoiner("\n");
-        for (Integer k : store.keySet()) {
-          StoreValue v = store.get(k);
-          Formatter fmt = new Formatter();
-          sj.add(fmt.format("%-3d -> %s", k, v.toString()).toString());
-          fmt.flush();
-          fmt.close();
-        }
-        return sj.toString();
+      protected boolean removeEldestEntry(Map.Entry<Integer, PendingRequest.Request<StoreValue>> eldest) {
+        return size() > window;
       }
-    }; 
+    };
+    restore();
   }
 
   public static Props props(int id, ActorRef bootNode) {
-    return Props.create(Node.class, () -> new Node(id, bootNode));
+    return props(id, bootNode, NodeHooks.NONE);
   }
 
-  private void log(String log, boolean ignoreUI) {
-    String timestamp = new SimpleDateFormat("HH:mm:ss.SS").format(new java.util.Date());
-    System.out.println(timestamp + ": [Node_" + idNode + "] " + log);
-    if (!ignoreUI) {
-      Platform.runLater(new Runnable() {
-        public void run() {
-          KeyValStoreSystem.logsMap.get(idNode).add(log);
-        }
-      });
+  public static Props props(int id, ActorRef bootNode, NodeHooks hooks) {
+    return Props.create(Node.class, () -> new Node(id, bootNode, hooks));
+  }
+
+  private void storePut(int key, StoreValue value) {
+    if (digests != null) {
+      StoreValue old = store.get(key);
+      if (old != null) { updateDigests(key, old, false); }
+      updateDigests(key, value, true);
     }
+    store.put(key, value);
+    storeListener.onPut(key, value);
+    if (wal != null) { wal.put(key, value); }
   }
-  
-  private void log(String log) {
-    log(log, false);
+
+  private void storeRemove(int key) {
+    StoreValue old = store.remove(key);
+    if (old != null) {
+      if (digests != null) { updateDigests(key, old, false); }
+      storeListener.onRemove(key);
+      if (wal != null) { wal.remove(key); }
+    }
   }
 
-  private void updateStoreUI() {
-    Platform.runLater(new Runnable() {
-      public void run() {
-        if (crashed) {
-          KeyValStoreSystem.storesMap.get(idNode).setValue("CRASHED!");
-        } else {
-          KeyValStoreSystem.storesMap.get(idNode).setValue(store.toString());
+  /**
+   * Rebuilds the store from the last snapshot and the write-ahead log (without logging the changes again)
+   */
+  private void restore() throws IOException {
+    digests = null; // Rebuilt from the restored store when needed
+    if (snapshot != null) {
+      int items = snapshot.load((key, value) -> {
+        store.put(key, value);
+        storeListener.onPut(key, value);
+      });
+      if (items >= 0) { log.record(Event.SNAPSHOT_LOADED, -1, -1, items, null, null); }
+      else if (items == StoreSnapshot.CORRUPTED) { log.record(Event.SNAPSHOT_CORRUPTED); }
+    }
+    if (wal != null) {
+      int records = wal.replay(new WriteAheadLog.Consumer() {
+        @Override
+        public void onPut(int key, StoreValue value) {
+          store.put(key, value);
+          storeListener.onPut(key, value);
         }
-      }
-    });
-    if (!crashed) { log("\n" + store.toString(), true); }
+        @Override
+        public void onRemove(int key) {
+          if (store.remove(key) != null) { storeListener.onRemove(key); }
+        }
+      });
+      log.record(Event.WAL_REPLAYED, -1, -1, records, null, null);
+      if (wal.getTruncated() > 0) { log.record(Event.WAL_TRUNCATED, -1, -1, -1, null, wal.getTruncated()); }
+    }
+    if (hints != null) {
+      int loaded = hints.load();
+      if (loaded > 0) { log.record(Event.HINTS_LOADED, -1, -1, loaded, null, null); }
+    }
   }
 
   void multicast(Serializable m) {
@@ -241,8 +680,8 @@ public class Node extends AbstractActor {
    * @param m
    * @param nodeIds
    */
-  void multicast(Serializable m, Set<Integer> nodeIds) {
-    for (Integer id: nodeIds) {
+  void multicast(Serializable m, int[] nodeIds) {
+    for (int id: nodeIds) {
       ActorRef peer = nodes.get(id);
       if (peer != null) {
         peer.tell(m, getSelf());
@@ -250,33 +689,22 @@ public class Node extends AbstractActor {
     }
   }
 
+  /**
+   * Rebuilds the rings; to be called whenever the set of known nodes changes
+   */
+  private void updateRing () {
+    peersRing = new Ring(nodes.keySet(), replicas, vnodes);
+    ring = peersRing.with(idNode);
+    joinRing = null;
+    digests = null; // The key ranges shared with the peers have changed
+  }
+
   /**
    * @param key Key of the involved item
-   * @return A set of ids representing the nodes responsible of the item
+   * @return The ids of the nodes responsible of the item (shared array, must not be modified)
    */
-  private Set<Integer> getInvolvedNodes (int key, boolean self) {
-    List<Integer> ids = new ArrayList<>(nodes.keySet());
-    if (self) { ids.add(idNode); }
-    Collections.sort(ids);
-    
-    int i, count = 0;
-    boolean last = true;
-    for (i = 0; i < ids.size(); ++i) {
-      if (ids.get(i) > key) {
-        last = false; break;
-      }
-    }
-    
-    if (last) { i--; }
-    
-    Set<Integer> res = new HashSet<>();
-    while (count < Math.min(ids.size(), N)) {
-      res.add(ids.get(i));
-      count++;
-      i = (i + 1) % ids.size();
-    }
-    
-    return res;
+  private int[] getInvolvedNodes (int key, boolean self) {
+    return (self ? ring : peersRing).getInvolvedNodes(key);
   }
 
   /**
@@ -285,301 +713,1269 @@ public class Node extends AbstractActor {
    * @return A subset of the local store
    */
   private Map<Integer, StoreValue> getItemsByNode(int idNode) {
-    Map<Integer, StoreValue> items = new HashMap<>();
-    
-    boolean joiningNode = false;
-    if (nodes.get(idNode) == null) { 
-      nodes.put(idNode, null); 
-      joiningNode = true;
-    }
+    return getItemsByNode(store, ring, idNode);
+  }
 
-    for (Integer key : store.keySet()) {
-      if (getInvolvedNodes(key, true).contains(idNode)) {
-        items.put(key, store.get(key));
-      }
+  /**
+   * @param peer The identifier of a node (possibly joining)
+   * @return The digest of the items in the store that are also responsibility of the node
+   */
+  private long[] getDigest(int peer) {
+    if (!nodes.containsKey(peer)) {
+      Ring peerRing = ringWith(peer);
+      return StoreDigest.compute(store, digestBuckets, (key) -> Ring.contains(peerRing.getInvolvedNodes(key), peer));
     }
-
-    if (joiningNode) { nodes.remove(idNode); }
-
-    return items;
+    if (digests == null) {
+      digests = new IntMap<>();
+      store.forEach((key, value) -> updateDigests(key, value, true));
+    }
+    long[] digest = digests.get(peer);
+    return digest == null ? new long[digestBuckets] : digest.clone();
   }
 
   /**
-   * Sets a timeout for a request solving; in case the request is still pending gives to the client a feedback of failure
-   * @param self   The coordinator node
-   * @param reqId  The request ID
+   * Adds (or removes) a version of an item to the digests of the other nodes responsible of it
    */
-  void setQueryTimeout (ActorRef self, int reqId) {
-    Utils.setTimeout(() -> {
-      PendingRequest.Request<StoreValue> req = pendingRequests.get(reqId);
-      // Check if the request is still pending after timeout
-      if (req != null) { 
-        log("Timeout for "+ req.act + " #" + reqId);
-        req.client.tell(new Feedback(req.key, null, STATUS.ERROR, req.act), self);
-        pendingRequests.remove(reqId);
-        if (req.act == ACT.UPDATE) { pendingUpdates.remove(req.key); }
+  private void updateDigests(int key, StoreValue value, boolean add) {
+    for (int id : ring.getInvolvedNodes(key)) {
+      if (id == idNode) { continue; }
+      long[] digest = digests.get(id);
+      if (digest == null) {
+        digest = new long[digestBuckets];
+        digests.put(id, digest);
       }
-    }, T);
+      if (add) { StoreDigest.add(digest, key, value.getVersion()); }
+      else { StoreDigest.remove(digest, key, value.getVersion()); }
+    }
   }
 
-  /* -------------------------------------- MESSAGE HANDLERS ---------------------------------------- */
-
-  @Override
-  public void preStart() {
-    if (bootNode != null) {
-      bootNode.tell(new Node.GetNodes(idNode), getSelf());
+  /**
+   * @return The ring including the given node, built once for a joining node
+   */
+  private Ring ringWith(int peer) {
+    if (joinRing == null || joinRingId != peer) {
+      joinRing = ring.with(peer);
+      joinRingId = peer;
     }
+    return joinRing;
   }
-  
-  void onGetNodes (GetNodes msg) {
-    log("Node " + msg.idNew + " requested the list of nodes in the system");
-    getSender().tell(new GetNodesResponse(idNode, nodes), getSelf());
-  }
-  
-  void onGetNodesResponse (GetNodesResponse msg) {
-    log("Received list of nodes from " + getSender().path().name());
-    nodes.putAll(msg.nodes);
-    nodes.put(msg.idSender, getSender());
-
-    // If recovering remove items no longer responsible for
-    if (recovering) {
-      nodes.remove(idNode);
-      List<Integer> keys = new ArrayList<>(store.keySet());
-      for (int i = 0; i < keys.size(); ++i) {
-        if (!getInvolvedNodes(keys.get(i), true).contains(idNode)) {
-          store.remove(keys.get(i));
-        }
-      }
-    } 
-
-    // Create join/recovering pending request
-    pendingJoinOrRecovery = new PendingRequest.Join<>(Math.min(nodes.size(), R));
 
-    multicast(new GetItems(idNode), getInvolvedNodes(idNode, false));   
-    
-    Utils.setTimeout(() -> {
-      // Check if the request is still pending after timeout
-      if (pendingJoinOrRecovery != null) { 
-        multicast(new NodeHello(this.idNode));
-        pendingJoinOrRecovery = null;
+  /**
+   * @param peer     The identifier of a node (possibly joining)
+   * @param diverged The buckets to select
+   * @return The keys in the store that are responsibility of the node and fall in the selected buckets
+   */
+  private int[] getKeysByNode(int peer, boolean[] diverged) {
+    Ring peerRing = ringWith(peer);
+    int[][] keys = { new int[16] };
+    int[] n = { 0 };
+    store.forEach((key, value) -> {
+      if (diverged[StoreDigest.bucket(key, digestBuckets)] && Ring.contains(peerRing.getInvolvedNodes(key), peer)) {
+        if (n[0] == keys[0].length) { keys[0] = Arrays.copyOf(keys[0], n[0] * 2); }
+        keys[0][n[0]++] = key;
       }
-    }, T);
-  }
-
-  void onGetItems (GetItems msg) {
-    log("Node " + msg.idSender + " requested items");
-    getSender().tell(new GetItemsResponse(getItemsByNode(msg.idSender)), getSelf());
+    });
+    return Arrays.copyOf(keys[0], n[0]);
   }
 
-  void onGetItemsResponse (GetItemsResponse msg) {
-    log("Received " + msg.items + " from " + getSender().path().name());
-
-    // Check if a join/recovering request is still pending
-    if (pendingJoinOrRecovery == null) { return; }
+  /**
+   * @param store  A store
+   * @param ring   The current ring
+   * @param idNode The identifier of the node
+   * @return The subset of the store that is responsibility of the given node
+   */
+  static Map<Integer, StoreValue> getItemsByNode(StorageEngine store, Ring ring, int idNode) {
+    Map<Integer, StoreValue> items = new HashMap<>();
+    Ring joinRing = ring.with(idNode); // The node could be joining
 
-    // Update local store from received values
-    if (store.size() == 0) { store.putAll(msg.items); }
-    else {
-      for (Integer key : msg.items.keySet()) {
-        StoreValue locValue = store.get(key);
-        StoreValue extValue = msg.items.get(key);
-        // Check if the value stored is the last version
-        if (locValue == null || locValue.compareTo(extValue) < 0) {
-          store.put(key, extValue);
-        }
+    store.forEach((key, value) -> {
+      if (Ring.contains(joinRing.getInvolvedNodes(key), idNode)) {
+        items.put(key, value);
       }
-    }
+    });
 
-    pendingJoinOrRecovery.quorum.inc(null); // Increment the quorum
+    return items;
+  }
 
-    // Exit if the quorum has not been reached yet
-    if (pendingJoinOrRecovery.quorum.reached()) { 
-      // If not recovering (join operation) broadcasts Hello msg from the new node
-      if (!recovering) { 
-        multicast(new NodeHello(this.idNode)); 
-      } else {
-        crashed = false;
-        recovering = false;
-      }
-      pendingJoinOrRecovery = null;
+  /**
+   * Sets a timeout for a request solving; in case the request is still pending gives to the client a feedback of failure.
+   * The timeout is delivered as a message to the node itself, so it is handled inside the actor
+   * @param reqId  The request ID
+   * @param millis Time left to the request
+   */
+  void setQueryTimeout (int reqId, long millis) {
+    RequestTimeout timeout = new RequestTimeout(reqId);
+    getTimers().startSingleTimer(timeout, timeout, Duration.ofMillis(millis));
+  }
+
+  /**
+   * @param consistency   The consistency level asked by the client
+   * @param defaultQuorum The configured quorum (R or W)
+   * @param involvedNodes The replicas of the item
+   * @return The answers the request needs
+   */
+  private int quorumSize (CONSISTENCY consistency, int defaultQuorum, int[] involvedNodes) {
+    switch (consistency) {
+      case ONE: return 1;
+      case QUORUM: return replicas / 2 + 1;
+      case ALL: return involvedNodes.length; // Fewer than N while the system has fewer nodes
+      default: return defaultQuorum;
     }
-    updateStoreUI();
   }
 
-  void onNodeHello (NodeHello msg) {
-    log("Node " + msg.idSender + " joined!");
-    nodes.put(msg.idSender, getSender());
+  /**
+   * Sets a timeout to remove an item from the pending updates (to avoid deadlock in case of failures)
+   * @param key  Key of the item
+   */
+  void setPendingUpdateTimeout (int key) {
+    PendingUpdateTimeout lease = new PendingUpdateTimeout(key);
+    getTimers().startSingleTimer(lease, lease, Duration.ofMillis(timeout));
+  }
 
-    // Remove items that the node is no longer responsible for
-    for (Integer key : getItemsByNode(msg.idSender).keySet()) {
-      Set<Integer> involvedNodes = getInvolvedNodes(key, true);
-      if (!involvedNodes.stream().anyMatch((nId) -> nId == idNode)) {
-        store.remove(key);
+  /**
+   * @param values The values received for a quorum
+   * @return The fresher value among them
+   */
+  static StoreValue getFreshest(List<StoreValue> values) {
+    StoreValue freshValue = values.get(0);
+    for (StoreValue v : values) {
+      if (v.getVersion() > freshValue.getVersion()) {
+        freshValue = v;
       }
     }
+    return freshValue;
   }
 
-  void onNodeLeave (NodeLeave msg) {
-    log("Requested to leave");
-    Map<Integer, Map<Integer, StoreValue>> toSend = new HashMap<>();
-    
-    // For each item in the store get the responsible node to which send the item 
-    for (Integer key : store.keySet()) {
-      Set<Integer> invNodesNow   = getInvolvedNodes(key, true);
-      Set<Integer> invNodesAfter = getInvolvedNodes(key, false);
-      invNodesAfter.removeAll(invNodesNow);
-      if (!invNodesAfter.isEmpty()) {
-        Integer id = invNodesAfter.iterator().next();
-        if (toSend.get(id) == null) { toSend.put(id, new HashMap<>()); }
-        toSend.get(id).put(key, store.get(key));
-      }
-    }
-    
-    // Send Goodbye msg attaching the items
-    for (Integer id : nodes.keySet()) {
-      Map<Integer, StoreValue> items = toSend.get(id);
-      if (items == null) { items = new HashMap<>(); }
-      nodes.get(id).tell(new NodeGoodbye(idNode, items), getSelf());
+  /**
+   * Records that the given nodes have been asked for items, to suspect them if they do not answer within the timeout
+   */
+  private void expectAnswer (int[] nodeIds) {
+    if (hints == null) { return; }
+    long now = System.currentTimeMillis();
+    for (int id : nodeIds) {
+      if (id != idNode) { awaiting.putIfAbsent(id, now); }
     }
   }
 
-  void onNodeGoodbye (NodeGoodbye msg) {
-    log("Received items from leaving Node " + msg.idSender);
-    store.putAll(msg.items);
-    nodes.remove(msg.idSender);
-    updateStoreUI();
+  /**
+   * Records an answer of a node; a node that was suspected gets its hints right away
+   */
+  private void onAnswer (ActorRef sender) {
+    if (awaiting.isEmpty()) { return; }
+    int id = idOf(sender);
+    boolean suspected = isSuspected(id);
+    awaiting.remove(id);
+    if (suspected) { deliverHints(id); }
   }
 
-  void onGetItem (GetItem msg) {
-    String log = "GET(" + msg.key + ") from " + getSender().path().name();
-    
-    // If the item is in the update process don't send the answer
-    if (pendingUpdates.contains(msg.key)) {
-      log("[IGNORED] " + log + "; can break seq consistency");
-      return;
-    }
+  /**
+   * @return The id of a node in the system, or -1 if the actor is not a known node
+   */
+  private int idOf (ActorRef node) {
+    Integer id = ids.get(node);
+    return id == null ? -1 : id;
+  }
 
-    // If the item requested have to be updated add in the set of pending updates
-    if (msg.act == ACT.UPDATE) { pendingUpdates.add(msg.key); }
+  /**
+   * Adds (or replaces) a node of the system; the rings are to be updated afterwards
+   */
+  private void putNode (int id, ActorRef node) {
+    ActorRef old = nodes.put(id, node);
+    if (old != null) { ids.remove(old); }
+    ids.put(node, id);
+  }
+
+  /**
+   * Removes a node of the system; the rings are to be updated afterwards
+   */
+  private void removeNode (int id) {
+    ActorRef old = nodes.remove(id);
+    if (old != null) { ids.remove(old); }
+  }
+
+  /**
+   * Checks an answer arrived after the quorum of a GET; a fresher value than the one returned is spread to
+   * the nodes which answered before
+   */
+  private void checkRead (PendingRequest.Get<StoreValue> read, ActorRef sender, StoreValue value) {
+    if (value.compareTo(read.result) > 0) {
+      repairRead(read, value);
+    } else {
+      queueReadRepair(read.key, read.result, sender, value);
+    }
+    read.responders.add(sender);
+    read.responses.add(value);
+  }
+
+  /**
+   * Repairs the nodes (the coordinator included) which answered a GET with a value older than the given one
+   */
+  private void repairRead (PendingRequest.Get<StoreValue> read, StoreValue fresh) {
+    read.result = fresh;
+    for (int i = 0; i < read.responders.size(); ++i) {
+      queueReadRepair(read.key, fresh, read.responders.get(i), read.responses.get(i));
+    }
+    if (fresh.compareTo(store.get(read.key)) > 0 && Ring.contains(getInvolvedNodes(read.key, true), idNode)) {
+      storePut(read.key, fresh);
+      readRepairs++;
+    }
+  }
+
+  /**
+   * Queues the fresher value of an item for a node responsible of it which answered a GET with an older one
+   * @param fresh  The value returned to the client
+   * @param sender The node which answered
+   * @param value  The value it answered with
+   */
+  private void queueReadRepair (int key, StoreValue fresh, ActorRef sender, StoreValue value) {
+    if (fresh.compareTo(value) <= 0) { return; }
+    int id = idOf(sender);
+    if (id < 0 || !Ring.contains(getInvolvedNodes(key, true), id)) { return; } // Fallbacks are not repaired
+    Map<Integer, StoreValue> queue = readRepairQueues.computeIfAbsent(id, (k) -> new LinkedHashMap<>());
+    StoreValue queued = queue.get(key);
+    if (queued == null && queue.size() >= readRepairPending) { return; } // Left to the background repair
+    if (fresh.compareTo(queued) > 0) { queue.put(key, fresh); }
+    if (!getTimers().isTimerActive(ReadRepairTick.INSTANCE)) {
+      getTimers().startSingleTimer(ReadRepairTick.INSTANCE, ReadRepairTick.INSTANCE, readRepairInterval);
+    }
+  }
+
+  /**
+   * @return Whether the node has not answered for longer than the timeout, so that it is probably crashed
+   */
+  private boolean isSuspected (int id) {
+    Long since = awaiting.get(id);
+    return since != null && System.currentTimeMillis() - since > timeout;
+  }
+
+  /**
+   * Picks a fallback node for each suspected node responsible of an item (sloppy quorum): the fallback answers
+   * in place of the replica and holds the write for it
+   * @return The fallbacks by position in involvedNodes (-1 if none), or null if no node is suspected
+   */
+  private int[] getFallbacks (int key, int[] involvedNodes) {
+    if (hints == null || awaiting.isEmpty()) { return null; }
+    int[] fallbacks = null;
+    for (int i = 0; i < involvedNodes.length; ++i) {
+      if (!isSuspected(involvedNodes[i])) { continue; }
+      if (fallbacks == null) {
+        fallbacks = new int[involvedNodes.length];
+        Arrays.fill(fallbacks, -1);
+      }
+      int[] chosen = fallbacks;
+      fallbacks[i] = ring.getFallbackNode(key, (id) -> isSuspected(id) || Ring.contains(chosen, id));
+      log.record(Event.FALLBACK, -1, key, involvedNodes[i], null, fallbacks[i]);
+    }
+    return fallbacks;
+  }
+
+  /**
+   * Orders the nodes to ask for an item: the responsible ones by observed latency, then the fallbacks,
+   * then the suspected ones
+   */
+  private int[] rankReplicas (int[] involvedNodes, int[] fallbacks) {
+    List<Integer> ranked = new ArrayList<>(involvedNodes.length * 2);
+    for (int id : involvedNodes) {
+      if (id != idNode && !isSuspected(id)) { ranked.add(id); }
+    }
+    ranked.sort((a, b) -> Long.compare(peerLatencies.average(a), peerLatencies.average(b)));
+    if (fallbacks != null) {
+      for (int id : fallbacks) {
+        if (id >= 0 && id != idNode) { ranked.add(id); }
+      }
+    }
+    for (int id : involvedNodes) {
+      if (id != idNode && isSuspected(id)) { ranked.add(id); }
+    }
+    return ranked.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  /**
+   * Asks the next candidates of a hedged GET
+   */
+  private void askReplicas (PendingRequest.Get<StoreValue> req, int count) {
+    long now = System.nanoTime();
+    for (; count > 0 && req.asked < req.candidates.length; --count) {
+      int[] peer = { req.candidates[req.asked++] };
+      multicast(new GetItem(req.reqId, req.key, ACT.GET), peer);
+      expectAnswer(peer);
+      req.asked(peer[0], now);
+    }
+    if (req.asked < req.candidates.length) {
+      HedgeTimeout timeout = new HedgeTimeout(req.reqId);
+      getTimers().startSingleTimer(timeout, timeout, Duration.ofNanos(hedgeDelay * 1000));
+    }
+  }
+
+  /**
+   * Records the latency of an answer to a GET, from the time its replica was asked; the hedge delay follows the
+   * chosen percentile of the latencies
+   */
+  private void recordReadLatency (PendingRequest.Get<StoreValue> req, ActorRef sender) {
+    if (req.candidates == null) { return; } // Not a hedged read
+    readLatency.record((System.nanoTime() - req.askedAt(idOf(sender))) / 1000);
+    if (readLatency.getCount() >= hedgeWindow) {
+      hedgeDelay = Math.max(minHedgeDelay, Math.min(maxHedgeDelay, readLatency.getPercentile(hedgePercentile)));
+      readLatency.reset();
+    }
+  }
+
+  /**
+   * Records the latency of the answer of a node to a request, from the time the node was asked, late answers included
+   */
+  private void recordLatency (PendingRequest.Request<StoreValue> req, ActorRef sender) {
+    int id = idOf(sender);
+    if (id >= 0) { peerLatencies.record(id, (System.nanoTime() - req.askedAt(id)) / 1000); }
+  }
+
+  /**
+   * Time a request waits for the answers it needs: the multiplier times the latency bound of the slowest of the
+   * fastest peers able to complete it, within min-timeout and T (waited for as long as these peers never answered)
+   * @param needed Answers still needed from the peers
+   * @param peers  The nodes asked (the node itself and the -1 entries are skipped)
+   * @return The timeout (ms)
+   */
+  private long requestTimeout (int needed, int[]... peers) {
+    if (!adaptiveTimeouts || needed <= 0) { return timeout; }
+    int size = 0;
+    for (int[] group : peers) { size += group == null ? 0 : group.length; }
+    long[] bounds = new long[size];
+    int n = 0;
+    for (int[] group : peers) {
+      if (group == null) { continue; }
+      for (int id : group) {
+        if (id < 0 || id == idNode) { continue; }
+        long bound = peerLatencies.bound(id);
+        bounds[n++] = bound < 0 ? Long.MAX_VALUE : bound;
+      }
+    }
+    if (n < needed) { return timeout; }
+    Arrays.sort(bounds, 0, n);
+    if (bounds[needed - 1] == Long.MAX_VALUE) { return timeout; }
+    long millis = (long) Math.ceil(bounds[needed - 1] * timeoutMultiplier / 1000);
+    return Math.max(minTimeout, Math.min(timeout, millis));
+  }
+
+  /**
+   * Starts handing the hints held for a node to it, unless a delivery to it is already in progress
+   */
+  private void deliverHints (int target) {
+    ActorRef peer = nodes.get(target);
+    if (hints == null || peer == null || !hints.targets().contains(target)) { return; }
+    for (PartitionTransfer.Outgoing t : outgoing.values()) {
+      if (t.kind == PartitionTransfer.KIND.HINTS && t.idTarget == target) { return; }
+    }
+    BatchBuilder b = new BatchBuilder();
+    for (Map.Entry<Integer, StoreValue> e : hints.startDelivery(target).entrySet()) { b.add(-1, e.getKey(), e.getValue()); }
+    startTransfer(target, peer, PartitionTransfer.KIND.HINTS, Arrays.copyOf(b.keys, b.size), Arrays.copyOf(b.values, b.size));
+  }
+
+  /* -------------------------------------- MESSAGE HANDLERS ---------------------------------------- */
+
+  @Override
+  public void preStart() {
+    if (bootNode != null) {
+      nodesAskedAt = System.nanoTime();
+      bootNode.tell(new Node.GetNodes(idNode), getSelf());
+    }
+    if (snapshot != null) {
+      getTimers().startTimerAtFixedRate(TakeSnapshot.INSTANCE, TakeSnapshot.INSTANCE, snapshotInterval);
+    }
+    if (!repairInterval.isZero()) {
+      getTimers().startTimerAtFixedRate(RepairTick.INSTANCE, RepairTick.INSTANCE, repairInterval);
+    }
+    if (hints != null) {
+      getTimers().startTimerAtFixedRate(HintTick.INSTANCE, HintTick.INSTANCE, hintInterval);
+    }
+  }
+
+  @Override
+  public void postStop() {
+    try {
+      if (wal != null) { wal.close(); } // Reports the records it could not write
+    } finally {
+      if (hints != null) { hints.close(); }
+      store.close();
+      log.close();
+    }
+  }
+  
+  void onGetNodes (GetNodes msg) {
+    log.record(Event.NODES_REQUESTED, -1, -1, msg.idNew, null, null);
+    getSender().tell(new GetNodesResponse(idNode, nodes), getSelf());
+  }
+  
+  void onGetNodesResponse (GetNodesResponse msg) {
+    log.record(Event.NODES_RECEIVED, -1, -1, -1, getSender(), null);
+    msg.nodes.forEach(this::putNode);
+    putNode(msg.idSender, getSender());
+    removeNode(idNode);
+    updateRing();
+    // The round trip to the boot node is the first guess of the latency of the nodes never heard from
+    long rtt = (System.nanoTime() - nodesAskedAt) / 1000;
+    for (int id : nodes.keySet()) { peerLatencies.guess(id, rtt); }
+
+    // If recovering (or restarting from the write-ahead log) remove items no longer responsible for
+    if (!store.isEmpty()) {
+      for (int key : store.keys()) {
+        if (!Ring.contains(getInvolvedNodes(key, true), idNode)) {
+          storeRemove(key);
+        }
+      }
+    } 
+
+    // Create join/recovering pending request; with hashed placement the items are spread over all the replica peers
+    // Every peer gets the digest of the items shared with it, so that it sends only the diverged buckets
+    // With hashed placement the join waits for one holder of each range, so a crashed peer does not stall it
+    int[] peers;
+    int needed;
+    if (ring.isHashed()) {
+      peers = ring.getReplicaPeers(idNode);
+      int[][] ranges = ring.getReplicaSets(idNode);
+      needed = ranges.length == 0 ? 0 : 1;
+      pendingJoinOrRecovery = new PendingRequest.Join<>(ranges);
+    } else {
+      peers = getInvolvedNodes(idNode, false);
+      needed = Math.min(nodes.size(), readQuorum);
+      pendingJoinOrRecovery = new PendingRequest.Join<>(needed);
+    }
+    for (int peer : peers) {
+      multicast(new GetItems(idNode, getDigest(peer)), new int[] { peer });
+    }
+    
+    // The first items come after the peers have read their stores, so the join waits T rather than their latency
+    getTimers().startSingleTimer(JoinTimeout.INSTANCE, JoinTimeout.INSTANCE, Duration.ofMillis(timeout));
+  }
+
+  void onGetItems (GetItems msg) {
+    log.record(Event.ITEMS_REQUESTED, -1, -1, msg.idSender, null, null);
+    boolean[] diverged = StoreDigest.diff(getDigest(msg.idSender), msg.digest);
+    startTransfer(msg.idSender, getSender(), PartitionTransfer.KIND.ITEMS, getKeysByNode(msg.idSender, diverged), null);
+    deliverHints(msg.idSender); // The node is back
+  }
+
+  void onNodeHello (NodeHello msg) {
+    log.record(Event.NODE_JOINED, -1, -1, msg.idSender, null, null);
+    putNode(msg.idSender, getSender());
+    updateRing();
+    deliverHints(msg.idSender);
+
+    // Remove items that the node is no longer responsible for
+    for (Integer key : getItemsByNode(msg.idSender).keySet()) {
+      if (!Ring.contains(getInvolvedNodes(key, true), idNode)) {
+        storeRemove(key);
+      }
+    }
+  }
+
+  void onNodeLeave (NodeLeave msg) {
+    if (pendingHandoffs >= 0) { return; } // Already leaving
+    log.record(Event.LEAVE_REQUESTED);
+    Map<Integer, BatchBuilder> toSend = new HashMap<>();
     
-    log(log);
-    StoreValue value = store.get(msg.key); // Try to get value from the store
+    // For each item in the store get the responsible node to which send the item 
+    store.forEach((key, value) -> {
+      int[] invNodesNow   = getInvolvedNodes(key, true);
+      int[] invNodesAfter = getInvolvedNodes(key, false);
+      // Send the item to the first node which becomes responsible of it
+      for (int id : invNodesAfter) {
+        if (!Ring.contains(invNodesNow, id)) {
+          toSend.computeIfAbsent(id, (k) -> new BatchBuilder()).add(-1, key, null);
+          break;
+        }
+      }
+    });
+    
+    // Stream the items to their new owners; the node says goodbye and stops once all the streams are acked
+    pendingHandoffs = 0;
+    handOff(toSend);
+    if (pendingHandoffs == 0) { leave(); }
+  }
+
+  private void handOff (Map<Integer, BatchBuilder> toSend) {
+    for (Map.Entry<Integer, BatchBuilder> e : toSend.entrySet()) {
+      ActorRef peer = nodes.get(e.getKey());
+      if (peer == null) { continue; }
+      pendingHandoffs++;
+      startTransfer(e.getKey(), peer, PartitionTransfer.KIND.HANDOFF, Arrays.copyOf(e.getValue().keys, e.getValue().size), null);
+    }
+  }
+
+  /**
+   * Hands the items of a stream its target did not ack to the next replica of each item that has not failed,
+   * so the node leaves only once every item is acked by some replica
+   */
+  private void rerouteHandoff (PartitionTransfer.Outgoing t) {
+    failedHandoffs.add(t.idTarget);
+    Map<Integer, BatchBuilder> toSend = new HashMap<>();
+    for (int i = t.acked; i < t.keys.length; ++i) {
+      for (int id : getInvolvedNodes(t.keys[i], false)) {
+        if (!failedHandoffs.contains(id) && nodes.containsKey(id)) {
+          toSend.computeIfAbsent(id, (k) -> new BatchBuilder()).add(-1, t.keys[i], null);
+          break;
+        }
+      }
+    }
+    handOff(toSend);
+  }
+
+  private void leave() {
+    multicast(new NodeGoodbye(idNode));
+    getContext().stop(getSelf());
+  }
+
+  void onNodeGoodbye (NodeGoodbye msg) {
+    removeNode(msg.idSender);
+    incoming.remove(getSender());
+    finished.remove(getSender());
+    awaiting.remove(msg.idSender);
+    if (hints != null) { hints.drop(msg.idSender); } // Its items have been handed over by the node itself
+    updateRing();
+  }
+
+  /**
+   * Starts streaming the values of some keys to a node
+   * @param values The values to send, or null to send the ones in the store
+   */
+  private void startTransfer (int idTarget, ActorRef target, PartitionTransfer.KIND kind, int[] keys, StoreValue[] values) {
+    PartitionTransfer.Outgoing t = new PartitionTransfer.Outgoing(streamCount++, idTarget, target, kind, keys, values, transferWindow * chunkSize);
+    outgoing.put(t.streamId, t);
+    sendChunks(t);
+  }
+
+  /**
+   * Sends the chunks of a stream allowed by the credit of the receiver, and arms the retransmission timeout
+   */
+  private void sendChunks (PartitionTransfer.Outgoing t) {
+    while (!t.lastSent && (t.sent < t.limit || t.keys.length == 0)) {
+      int end = Math.min(t.sent + chunkSize, t.keys.length);
+      BatchBuilder chunk = new BatchBuilder();
+      for (int i = t.sent; i < end; ++i) {
+        StoreValue value = t.values != null ? t.values[i] : store.get(t.keys[i]);
+        if (value != null) { chunk.add(-1, t.keys[i], value); } // The item could have been removed meanwhile
+      }
+      t.lastSent = end == t.keys.length;
+      t.target.tell(new TransferChunk(t.streamId, t.sent, end, t.kind, Arrays.copyOf(chunk.keys, chunk.size), Arrays.copyOf(chunk.values, chunk.size), t.lastSent), getSelf());
+      t.sent = end;
+    }
+    TransferTimeout expiry = new TransferTimeout(t.streamId);
+    getTimers().startSingleTimer(expiry, expiry, Duration.ofMillis(timeout));
+  }
+
+  void onTransferChunk (TransferChunk msg) {
+    Map<Integer, PartitionTransfer.Incoming> streams = incoming.computeIfAbsent(getSender(), (k) -> new HashMap<>());
+    PartitionTransfer.Incoming in = streams.get(msg.streamId);
+    if (in == null) {
+      // Chunks of a stream already received (resent after a lost ack) are only acked again
+      int end = finished.end(getSender(), msg.streamId);
+      if (end >= 0) {
+        dropIncoming(getSender(), msg.streamId);
+        getSender().tell(new TransferAck(msg.streamId, end, transferWindow), getSelf());
+        return;
+      }
+      in = new PartitionTransfer.Incoming();
+      streams.put(msg.streamId, in);
+    }
+
+    // Chunks already applied (resent after a lost ack) are only acked again
+    if (msg.offset == in.offset && !in.complete) {
+      for (int i = 0; i < msg.keys.length; ++i) {
+        // Check if the value stored is the last version
+        if (msg.values[i].compareTo(store.get(msg.keys[i])) > 0) {
+          storePut(msg.keys[i], msg.values[i]);
+          if (msg.kind == PartitionTransfer.KIND.REPAIR) { repairedItems++; }
+        }
+      }
+      in.offset = msg.end;
+      in.items += msg.keys.length;
+      in.complete = msg.last;
+      if (msg.kind == PartitionTransfer.KIND.ITEMS && pendingJoinOrRecovery != null) {
+        getTimers().startSingleTimer(JoinTimeout.INSTANCE, JoinTimeout.INSTANCE, Duration.ofMillis(timeout)); // The transfer is progressing
+      }
+      if (in.complete) {
+        dropIncoming(getSender(), msg.streamId);
+        finished.add(getSender(), msg.streamId, in.offset);
+        onTransferReceived(msg.kind, in.items);
+      }
+    }
+    getSender().tell(new TransferAck(msg.streamId, in.offset, transferWindow), getSelf());
+  }
+
+  /**
+   * Forgets a stream towards the node, and its sender once it has no other stream in progress
+   */
+  private void dropIncoming (ActorRef sender, int streamId) {
+    Map<Integer, PartitionTransfer.Incoming> streams = incoming.get(sender);
+    if (streams == null) { return; }
+    streams.remove(streamId);
+    if (streams.isEmpty()) { incoming.remove(sender); }
+  }
+
+  void onTransferAck (TransferAck msg) {
+    PartitionTransfer.Outgoing t = outgoing.get(msg.streamId);
+    if (t == null || msg.offset < t.acked) { return; }
+    t.acked = msg.offset;
+    t.limit = msg.offset + msg.credit * chunkSize;
+    t.retries = 0;
+    if (t.isComplete()) {
+      onTransferSent(t, true);
+    } else {
+      sendChunks(t);
+    }
+  }
+
+  void onTransferTimeout (TransferTimeout msg) {
+    PartitionTransfer.Outgoing t = outgoing.get(msg.streamId);
+    if (t == null) { return; }
+    if (++t.retries > 3) {
+      log.record(Event.TRANSFER_ABORTED, -1, -1, t.acked, t.target, t.kind);
+      onTransferSent(t, false);
+      return;
+    }
+    // Resume from the last offset acked by the receiver
+    t.sent = t.acked;
+    t.lastSent = false;
+    sendChunks(t);
+  }
+
+  private void onTransferSent (PartitionTransfer.Outgoing t, boolean acked) {
+    outgoing.remove(t.streamId);
+    getTimers().cancel(new TransferTimeout(t.streamId));
+    if (t.kind == PartitionTransfer.KIND.HANDOFF) {
+      if (!acked) { rerouteHandoff(t); }
+      if (--pendingHandoffs == 0) { leave(); }
+    }
+    // Hints not acked are kept for the next attempt
+    if (t.kind == PartitionTransfer.KIND.HINTS && acked) {
+      hints.delivered(t.idTarget, t.keys, t.values);
+      log.record(Event.HINTS_DELIVERED, -1, -1, t.keys.length, t.target, null);
+    }
+  }
+
+  private void onTransferReceived (PartitionTransfer.KIND kind, int items) {
+    if (kind == PartitionTransfer.KIND.REPAIR) { return; }
+    if (kind == PartitionTransfer.KIND.HANDOFF) {
+      log.record(Event.ITEMS_FROM_LEAVING, -1, -1, items, getSender(), null);
+      return;
+    }
+    if (kind == PartitionTransfer.KIND.HINTS) {
+      log.record(Event.HINTS_RECEIVED, -1, -1, items, getSender(), null);
+      return;
+    }
+    log.record(Event.ITEMS_RECEIVED, -1, -1, items, getSender(), null);
+
+    // Check if a join/recovering request is still pending
+    if (pendingJoinOrRecovery == null) { return; }
+
+    // Exit if the quorum has not been reached yet
+    if (pendingJoinOrRecovery.received(idOf(getSender()))) { 
+      completeJoinOrRecovery();
+      getTimers().cancel(JoinTimeout.INSTANCE);
+    }
+  }
+
+  /**
+   * Ends the pending join or recovery, with the items received so far
+   */
+  private void completeJoinOrRecovery () {
+    // If not recovering (join operation) broadcasts Hello msg from the new node
+    if (!recovering) { 
+      multicast(new NodeHello(this.idNode)); 
+    } else {
+      crashed = false;
+      recovering = false;
+      hooks.onCrashed(false);
+    }
+    pendingJoinOrRecovery = null;
+  }
+
+  void onGetItem (GetItem msg) {
+    // If the item is in the update process the request waits for it
+    if (pendingUpdates.isLocked(msg.key)) {
+      waitForUnlock(getSender(), msg.key, msg.reqId, msg.act);
+      return;
+    }
+
+    // If the item requested have to be updated lock it
+    if (msg.act == ACT.UPDATE) { pendingUpdates.lock(msg.key, getSender(), msg.reqId); }
+    answerGetItem(getSender(), msg.reqId, msg.key, msg.act);
+  }
+
+  /**
+   * Sends the value of an item to a coordinator
+   */
+  private void answerGetItem (ActorRef coordinator, int reqId, int key, ACT act) {
+    log.record(Event.GET_ITEM, reqId, key, -1, coordinator, null);
+    StoreValue value = getLocal(key); // Try to get value from the store
+
+    // Send value to the sender
+    reply(coordinator, new GetItemResponse(reqId, value == null ? new StoreValue(null, -1) : value));
+
+    // Set a timeout (lease) to unlock the item (to avoid deadlock in case of failures)
+    if (act == ACT.UPDATE) { setPendingUpdateTimeout(key); }
+  }
+
+  /**
+   * Queues a request for a locked item; if the queue is full the request is ignored
+   * @param coordinator The coordinator of the request, answered once the item is unlocked
+   */
+  private void waitForUnlock (ActorRef coordinator, int key, int reqId, ACT act) {
+    if (pendingUpdates.enqueue(key, new KeyLocks.Waiter(coordinator, reqId, act))) {
+      log.record(Event.GET_ITEM_QUEUED, reqId, key, -1, coordinator, null);
+    } else {
+      log.record(Event.GET_ITEM_IGNORED, reqId, key, -1, coordinator, null);
+      ignoredGets++;
+    }
+  }
+
+  /**
+   * Counts the local copy of an item towards the quorum of a request coordinated by the node (locking it for an
+   * update); if an update holds the item the request waits in its queue as the ones of other coordinators do, and
+   * the copy is counted when the node answers itself
+   * @return 1 if the request waits for the local copy, 0 otherwise
+   */
+  private int getLocalForQuorum (PendingRequest.Request<StoreValue> req) {
+    if (pendingUpdates.isLocked(req.key)) {
+      waitForUnlock(getSelf(), req.key, req.reqId, req.act);
+      return 1;
+    }
+    StoreValue value = getLocal(req.key);
+    req.quorum.inc(value == null ? new StoreValue(null, -1) : value); // Increment the quorum
+    if (req.act == ACT.UPDATE) { pendingUpdates.lock(req.key, getSelf(), req.reqId); }
+    return 0;
+  }
+
+  /**
+   * Releases the lock of an item and serves the requests waiting for it
+   * @param owner The update holding the lock, or null to release it anyway
+   */
+  private void unlock (int key, ActorRef owner, int reqId) {
+    List<KeyLocks.Waiter> ready = owner == null ? pendingUpdates.release(key) : pendingUpdates.release(key, owner, reqId);
+    if (owner == null || !pendingUpdates.isLocked(key)) { getTimers().cancel(new PendingUpdateTimeout(key)); }
+    for (KeyLocks.Waiter w : ready) {
+      answerGetItem(w.sender, w.reqId, key, w.act);
+    }
+  }
+
+  void onGetItemBatch (GetItemBatch msg) {
+    log.record(Event.GET_ITEM_BATCH, -1, -1, msg.keys.length, getSender(), msg.act);
+    BatchBuilder batch = new BatchBuilder();
 
-    // Send value to the sender (add artificial delay only for test purposes)
-    ActorRef peer = getSender(), self = getSelf();
-    Utils.setTimeout(() -> { 
-      peer.tell(new GetItemResponse(msg.reqId, value == null ? new StoreValue(null, -1) : value), self);
-    }, KeyValStoreSystem.delaysMap.get(idNode).get());
+    for (int i = 0; i < msg.keys.length; ++i) {
+      int key = msg.keys[i];
+      // Items in the update process are left out of the answer, and answered on their own once unlocked
+      if (pendingUpdates.isLocked(key)) {
+        waitForUnlock(getSender(), key, msg.reqIds[i], msg.act);
+        continue;
+      }
+      if (msg.act == ACT.UPDATE) {
+        pendingUpdates.lock(key, getSender(), msg.reqIds[i]);
+        setPendingUpdateTimeout(key);
+      }
+      StoreValue value = getLocal(key);
+      batch.add(msg.reqIds[i], key, value == null ? new StoreValue(null, -1) : value);
+    }
 
-    // Set a timeout to remove the item from pending updates (to avoid deadlock in case of failures)
-    Utils.setTimeout(() -> { pendingUpdates.remove(msg.key); }, T);
+    reply(new GetItemBatchResponse(Arrays.copyOf(batch.ids, batch.size), Arrays.copyOf(batch.values, batch.size)));
+  }
+
+  /**
+   * Answers the sender of the current message (add artificial delay only for test purposes)
+   */
+  private void reply (Serializable response) {
+    reply(getSender(), response);
+  }
+
+  private void reply (ActorRef to, Serializable response) {
+    int delay = hooks.getResponseDelay();
+    if (delay <= 0) {
+      to.tell(response, getSelf());
+    } else {
+      getContext().getSystem().scheduler().scheduleOnce(Duration.ofMillis(delay), to, response, getContext().getDispatcher(), getSelf());
+    }
+  }
+
+  /**
+   * @return The value of the key in the store, or the hint held for another node if fresher (as a fallback node)
+   */
+  private StoreValue getLocal (int key) {
+    StoreValue value = store.get(key);
+    if (hints == null || hints.targets().isEmpty()) { return value; }
+    StoreValue hint = hints.get(key);
+    return hint != null && hint.compareTo(value) > 0 ? hint : value;
   }
 
   void onUpdateItem (UpdateItem msg) {
+    applyUpdate(msg.reqId, msg.key, msg.value);
+  }  
+
+  void onUpdateHint (UpdateHint msg) {
+    if (Ring.contains(getInvolvedNodes(msg.key, true), idNode)) {
+      applyUpdate(msg.reqId, msg.key, msg.value); // Responsible of the item meanwhile
+    } else {
+      storeHint(msg.target, msg.key, msg.value);
+      unlock(msg.key, getSender(), msg.reqId); // Release the item locked by the GetItem of the update
+    }
+  }
+
+  private void storeHint (int target, int key, StoreValue value) {
+    if (nodes.containsKey(target) && hints.add(target, key, value)) {
+      log.record(Event.HINT_STORED, -1, key, target, getSender(), value);
+    }
+  }
+
+  void onUpdateItemBatch (UpdateItemBatch msg) {
+    for (int i = 0; i < msg.keys.length; ++i) {
+      applyUpdate(msg.reqIds[i], msg.keys[i], msg.values[i]);
+    }
+  }
+
+  private void applyUpdate (int reqId, int key, StoreValue value) {
     // Update value in the store only if it is fresher than the one stored
-    if (msg.value.compareTo(store.get(msg.key)) > 0) {
-      log("UPDATE(" + msg.key + ", " + msg.value + ") from " + getSender().path().name());
-      store.put(msg.key, msg.value);
-      // Remove item from pending updates set
-      pendingUpdates.remove(msg.key);
+    if (value.compareTo(store.get(key)) > 0) {
+      log.record(Event.UPDATE_ITEM, -1, key, -1, getSender(), value);
+      storePut(key, value);
     }
-  }  
+    // The update holding the item is over: unlock it, serving the requests waiting for it. Only the request that
+    // locked the item releases it; repairs carry no request id, so a fresher repaired value never does
+    if (reqId >= 0) { unlock(key, getSender(), reqId); }
+  }
+
+  void onUnlockItem (UnlockItem msg) {
+    unlock(msg.key, getSender(), msg.reqId);
+  }
 
   void onGet (Get msg) {
-    log("Coordinating: GET(" + msg.key + ") ");
+    log.record(Event.COORDINATING_GET, -1, msg.key, -1, getSender(), null);
 
     // Create a pending GET Request
     int reqId = reqCount++;
-    Set<Integer> involvedNodes = getInvolvedNodes(msg.key, true);
-    PendingRequest.Request<StoreValue> req = new PendingRequest.Get<>(reqId, getSender(), msg.key, R);
+    int[] involvedNodes = getInvolvedNodes(msg.key, true);
+    int[] fallbacks = getFallbacks(msg.key, involvedNodes);
+    int quorum = quorumSize(msg.consistency, readQuorum, involvedNodes);
+    PendingRequest.Get<StoreValue> req = new PendingRequest.Get<>(reqId, getSender(), msg.key, quorum);
+    req.clientReqId = msg.reqId;
+    req.sentAt = System.nanoTime();
+    gets++;
     
-    // Check if the coordinator node should have the value
-    if (involvedNodes.stream().anyMatch((nId) -> nId == idNode)) {
-      StoreValue value = store.get(msg.key);
-      req.quorum.inc(value == null ? new StoreValue(null, -1) : value); // Increment the quorum
+    // Check if the coordinator node should have the value (or stands in for a suspected node)
+    // A local copy waiting for an update is not counted by the timeout: the request fails rather than wait for it
+    int waiting = 0;
+    if (Ring.contains(involvedNodes, idNode) || (fallbacks != null && Ring.contains(fallbacks, idNode))) {
+      waiting = getLocalForQuorum(req);
     }
 
     pendingRequests.put(reqId, req); // Put the request in the container
+    // A quorum of one is reached by the local copy, without asking the other replicas
+    if (req.quorum.reached()) {
+      onQuorum(req, null);
+      return;
+    }
+    setQueryTimeout(reqId, msg.timeout > 0 ? msg.timeout : requestTimeout(quorum - req.quorum.values.size() - waiting, involvedNodes, fallbacks)); 
+
+    // Hedged read: only the nodes needed for the quorum are asked, one more every time the answers are late
+    if (hedgedReads) {
+      req.candidates = rankReplicas(involvedNodes, fallbacks);
+      askReplicas(req, quorum - req.quorum.values.size());
+      return;
+    }
     multicast(new GetItem(reqId, msg.key, ACT.GET), involvedNodes); // Send a multicast to involved nodes
-    setQueryTimeout(getSelf(), reqId); 
+    if (fallbacks != null) { multicast(new GetItem(reqId, msg.key, ACT.GET), fallbacks); }
+    expectAnswer(involvedNodes);
   }
 
   void onUpdate (Update msg) {
-    log("Coordinating: UPDATE(" + msg.key + ", " + msg.value + ")");
+    log.record(Event.COORDINATING_UPDATE, -1, msg.key, -1, getSender(), msg.value);
 
     // Create a pending UPDATE Request
     int reqId = reqCount++;
-    Set<Integer> involvedNodes = getInvolvedNodes(msg.key, true);
-    PendingRequest.Update<StoreValue> req = new PendingRequest.Update<>(reqId, getSender(), W, msg.key, msg.value);
+    int[] involvedNodes = getInvolvedNodes(msg.key, true);
+    int quorum = quorumSize(msg.consistency, writeQuorum, involvedNodes);
+    PendingRequest.Update<StoreValue> req = new PendingRequest.Update<>(reqId, getSender(), quorum, msg.key, msg.value);
+    req.clientReqId = msg.reqId;
+    req.sentAt = System.nanoTime();
     req.setInvolvedNodes(involvedNodes, this.idNode);
+    // Suspected replicas are still asked, but fallbacks can reach the quorum in their place (sloppy quorum)
+    req.fallbacks = getFallbacks(msg.key, involvedNodes);
     
-    // Check if the coordinator node should have the value
-    if (req.updateLocal) {
-      StoreValue value = store.get(msg.key);
-      req.quorum.inc(value == null ? new StoreValue(null, -1) : value);  // Increment the quorum
-      pendingUpdates.add(msg.key);
+    // Check if the coordinator node should have the value (or stands in for a suspected node)
+    // A local copy waiting for an update is not counted by the timeout: the request fails rather than wait for it
+    int waiting = 0;
+    if (req.updateLocal || (req.fallbacks != null && Ring.contains(req.fallbacks, idNode))) {
+      waiting = getLocalForQuorum(req);
     }
 
     pendingRequests.put(reqId, req); // Put the request in the container
+    // A quorum of one is reached by the local copy: the new version is written and sent to the replicas right away
+    if (req.quorum.reached()) {
+      onQuorum(req, null);
+      return;
+    }
     multicast(new GetItem(reqId, msg.key, ACT.UPDATE), involvedNodes); // Send a multicast to involved nodes
-    setQueryTimeout(getSelf(), reqId);
+    if (req.fallbacks != null) { multicast(new GetItem(reqId, msg.key, ACT.UPDATE), req.fallbacks); }
+    expectAnswer(involvedNodes);
+    setQueryTimeout(reqId, msg.timeout > 0 ? msg.timeout : requestTimeout(quorum - req.quorum.values.size() - waiting, involvedNodes, req.fallbacks));
+  }
+
+  void onMultiGet (MultiGet msg) {
+    PendingRequest.Multi<StoreValue> multi = new PendingRequest.Multi<>(reqCount++, getSender(), ACT.GET, msg.keys);
+    multi.clientReqId = msg.reqId;
+    coordinateMulti(multi, null);
+  }
+
+  void onMultiUpdate (MultiUpdate msg) {
+    int[] keys = new int[msg.values.size()];
+    String[] values = new String[keys.length];
+    int i = 0;
+    for (Map.Entry<Integer, String> e : msg.values.entrySet()) {
+      keys[i] = e.getKey();
+      values[i++] = e.getValue();
+    }
+    PendingRequest.Multi<StoreValue> multi = new PendingRequest.Multi<>(reqCount++, getSender(), ACT.UPDATE, keys);
+    multi.clientReqId = msg.reqId;
+    coordinateMulti(multi, values);
+  }
+
+  /**
+   * Creates a sub-request for each key of a multi-key request, then sends a single batch to each involved node
+   * @param multi  The multi-key request
+   * @param values The values to write (UPDATE only)
+   */
+  private void coordinateMulti (PendingRequest.Multi<StoreValue> multi, String[] values) {
+    log.record(Event.COORDINATING_MULTI, multi.reqId, -1, multi.keys.length, getSender(), multi.act);
+    Map<Integer, BatchBuilder> batches = new HashMap<>();
+
+    for (int i = 0; i < multi.keys.length; ++i) {
+      int key = multi.keys[i], reqId = reqCount++;
+      multi.subReqIds[i] = reqId;
+      int[] involvedNodes = getInvolvedNodes(key, true);
+      PendingRequest.Request<StoreValue> req;
+      if (multi.act == ACT.GET) {
+        req = new PendingRequest.Get<>(reqId, null, key, readQuorum);
+      } else {
+        PendingRequest.Update<StoreValue> updateReq = new PendingRequest.Update<>(reqId, null, writeQuorum, key, values[i]);
+        updateReq.setInvolvedNodes(involvedNodes, idNode);
+        req = updateReq;
+      }
+      req.parent = multi;
+      req.index = i;
+
+      // Check if the coordinator node should have the value
+      if (Ring.contains(involvedNodes, idNode)) { getLocalForQuorum(req); }
+      pendingRequests.put(reqId, req);
+
+      for (int id : involvedNodes) {
+        if (id != idNode) { batches.computeIfAbsent(id, (k) -> new BatchBuilder()).add(reqId, key, null); }
+      }
+      int[] fallbacks = getFallbacks(key, involvedNodes);
+      if (fallbacks == null) { continue; }
+      if (multi.act == ACT.UPDATE) { ((PendingRequest.Update<StoreValue>) req).fallbacks = fallbacks; }
+      for (int id : fallbacks) {
+        if (id >= 0) { batches.computeIfAbsent(id, (k) -> new BatchBuilder()).add(reqId, key, null); }
+      }
+    }
+
+    pendingMulti.put(multi.reqId, multi);
+    if (multi.keys.length == 0) {
+      completeMulti(multi);
+      return;
+    }
+    // The answers are timed from the batches, sent once all the sub-requests are built
+    long sentAt = System.nanoTime();
+    for (int reqId : multi.subReqIds) { pendingRequests.get(reqId).sentAt = sentAt; }
+    for (Map.Entry<Integer, BatchBuilder> e : batches.entrySet()) {
+      BatchBuilder b = e.getValue();
+      multicast(new GetItemBatch(Arrays.copyOf(b.ids, b.size), Arrays.copyOf(b.keys, b.size), multi.act), new int[] { e.getKey() });
+      expectAnswer(new int[] { e.getKey() });
+    }
+    setQueryTimeout(multi.reqId, timeout);
+  }
+
+  private void completeMulti (PendingRequest.Multi<StoreValue> multi) {
+    multi.client.tell(new MultiFeedback(multi.clientReqId, multi.act, multi.keys, multi.values, multi.statuses), getSelf());
+    pendingMulti.remove(multi.reqId);
+    getTimers().cancel(new RequestTimeout(multi.reqId));
   }
 
   void onGetItemResponse (GetItemResponse msg) {
-    String str_log = "Response for Get #" + msg.reqId + " from " + getSender().path().name() + ": " + msg.value;
-    PendingRequest.Request<StoreValue> req = pendingRequests.get(msg.reqId); // Get pending request from id
+    onAnswer(getSender());
+    onItemResponse(msg.reqId, msg.value, null);
+  }
+
+  void onGetItemBatchResponse (GetItemBatchResponse msg) {
+    onAnswer(getSender());
+    // The updates completed by this response are sent as one batch per involved node
+    Map<Integer, BatchBuilder> updates = new HashMap<>();
+    for (int i = 0; i < msg.reqIds.length; ++i) {
+      onItemResponse(msg.reqIds[i], msg.values[i], updates);
+    }
+    for (Map.Entry<Integer, BatchBuilder> e : updates.entrySet()) {
+      BatchBuilder b = e.getValue();
+      multicast(new UpdateItemBatch(Arrays.copyOf(b.ids, b.size), Arrays.copyOf(b.keys, b.size), Arrays.copyOf(b.values, b.size)), new int[] { e.getKey() });
+    }
+  }
+
+  /**
+   * Handles the value of an item received from a node for a pending request
+   * @param reqId   The request ID
+   * @param value   The value stored by the node
+   * @param updates Batches collecting the updates to send, or null to send them right away
+   */
+  private void onItemResponse (int reqId, StoreValue value, Map<Integer, BatchBuilder> updates) {
+    PendingRequest.Request<StoreValue> req = pendingRequests.get(reqId); // Get pending request from id
     
     // Exit if the request has been already satisfied
     if (req == null) {
-      log("[IGNORED] " + str_log);
+      log.record(Event.RESPONSE_IGNORED, reqId, -1, -1, getSender(), value);
+      // A late answer to a GET is still checked against the value returned
+      PendingRequest.Request<StoreValue> done = completedRequests.get(reqId);
+      if (done != null) { recordLatency(done, getSender()); } // A peer slower than the timeouts is measured as such
+      if (done != null && done.act == ACT.GET) {
+        recordReadLatency((PendingRequest.Get<StoreValue>) done, getSender());
+        if (readRepair && !done.timedOut) { checkRead((PendingRequest.Get<StoreValue>) done, getSender(), value); }
+      } else if (done != null) {
+        // The node has served the request from its queue and locked the item for an update already completed
+        getSender().tell(new UnlockItem(reqId, done.key), getSelf());
+      }
       return;
     }
 
-    log(str_log);
-    req.quorum.inc(new StoreValue(msg.value.getValue(), msg.value.getVersion())); // Increment the quorum
+    log.record(Event.RESPONSE, reqId, req.key, -1, getSender(), value);
+    req.quorum.inc(new StoreValue(value.getValue(), value.getVersion())); // Increment the quorum
+    recordLatency(req, getSender());
+    if (req.act == ACT.GET) {
+      PendingRequest.Get<StoreValue> read = (PendingRequest.Get<StoreValue>) req;
+      recordReadLatency(read, getSender());
+      if (readRepair) {
+        read.responders.add(getSender());
+        read.responses.add(value);
+      }
+    }
 
     // Exit if the quorum has not been reached yet
     if (!req.quorum.reached()) { return; }
+    onQuorum(req, updates);
+  }
 
-    log("Quorum reached for " + req.act + " #" + msg.reqId);
+  /**
+   * Completes a request which has reached its quorum: gives the feedback and, for an UPDATE, writes the new version
+   * @param updates Batches collecting the updates to send, or null to send them right away
+   */
+  private void onQuorum (PendingRequest.Request<StoreValue> req, Map<Integer, BatchBuilder> updates) {
+    int reqId = req.reqId;
+    log.record(Event.QUORUM_REACHED, reqId, req.key, -1, null, req.act);
     
-    // Get the fresher value from those received
-    StoreValue freshValue = req.quorum.values.get(0);
-    for (StoreValue v : req.quorum.values) {
-      if (v.getVersion() > freshValue.getVersion()) {
-        freshValue = v;
-      }
+    StoreValue freshValue = getFreshest(req.quorum.values);
+    StoreValue newValue = req.act == ACT.UPDATE ? new StoreValue(((PendingRequest.Update<StoreValue>) req).value, freshValue.getVersion() + 1) : null;
+
+    // Give feedback to the client (or to the multi-key request) and remove pending request from the container
+    pendingRequests.remove(reqId);
+    if (req.parent == null) {
+      req.client.tell(new Feedback(req.clientReqId, req.key, req.act == ACT.GET ? freshValue : newValue, STATUS.OK, req.act), getSelf());
+      getTimers().cancel(new RequestTimeout(reqId));
+      if (req.act == ACT.GET && hedgedReads) { getTimers().cancel(new HedgeTimeout(reqId)); }
+    } else if (req.parent.complete(req.index, req.act == ACT.GET ? freshValue : null, STATUS.OK)) {
+      completeMulti(req.parent);
     }
-
-    // Give feedback to the client and remove pending request from the container
-    req.client.tell(new Feedback(req.key, req.act == ACT.GET ? freshValue : null, STATUS.OK, req.act), getSelf());
-    pendingRequests.remove(msg.reqId);
     
+    // Repair the nodes which answered with an older value (the ones answering later are checked on arrival)
+    if (req.act == ACT.GET && readRepair) {
+      PendingRequest.Get<StoreValue> read = (PendingRequest.Get<StoreValue>) req;
+      repairRead(read, freshValue);
+    }
+    completedRequests.put(reqId, req);
+
     // Send update to the involved nodes 
     if (req.act == ACT.UPDATE) {
       PendingRequest.Update<StoreValue> updateReq = (PendingRequest.Update<StoreValue>) req; // Cast the request to update type
-      StoreValue newValue = new StoreValue(updateReq.value, freshValue.getVersion() + 1); // Create new value
       // Update local value if required
       if (updateReq.updateLocal) { 
-        store.put(updateReq.key, newValue); 
-        pendingUpdates.remove(updateReq.key);
+        storePut(updateReq.key, newValue); 
+        unlock(updateReq.key, getSelf(), reqId);
       } 
-      multicast(new UpdateItem(updateReq.key, newValue), updateReq.involvedNodes); // Send messages
+      if (updates == null) {
+        multicast(new UpdateItem(reqId, updateReq.key, newValue), updateReq.involvedNodes); // Send messages
+      } else {
+        for (int id : updateReq.involvedNodes) {
+          if (id != idNode) { updates.computeIfAbsent(id, (k) -> new BatchBuilder()).add(reqId, updateReq.key, newValue); }
+        }
+      }
+      // The fallbacks hold the write for the suspected replicas
+      if (updateReq.fallbacks != null) {
+        for (int i = 0; i < updateReq.fallbacks.length; ++i) {
+          if (updateReq.fallbacks[i] == idNode) {
+            unlock(updateReq.key, getSelf(), reqId);
+            storeHint(updateReq.involvedNodes[i], updateReq.key, newValue);
+          } else if (updateReq.fallbacks[i] >= 0) {
+            multicast(new UpdateHint(reqId, updateReq.involvedNodes[i], updateReq.key, newValue), new int[] { updateReq.fallbacks[i] });
+          }
+        }
+      }
+    }
+  }
+
+  void onRequestTimeout (RequestTimeout msg) {
+    // Fail the keys of a multi-key request that are still pending
+    PendingRequest.Multi<StoreValue> multi = pendingMulti.get(msg.reqId);
+    if (multi != null) {
+      log.record(Event.TIMEOUT, msg.reqId, -1, -1, null, multi.act);
+      timeouts++;
+      for (int i = 0; i < multi.keys.length; ++i) {
+        PendingRequest.Request<StoreValue> req = pendingRequests.remove(multi.subReqIds[i]);
+        if (req == null) { continue; }
+        multi.complete(i, null, STATUS.ERROR);
+        if (req.act == ACT.UPDATE) { abortUpdate((PendingRequest.Update<StoreValue>) req); }
+      }
+      completeMulti(multi);
+      return;
+    }
+
+    PendingRequest.Request<StoreValue> req = pendingRequests.remove(msg.reqId);
+    // Check if the request is still pending after timeout
+    if (req != null) { 
+      log.record(Event.TIMEOUT, msg.reqId, req.key, -1, null, req.act);
+      timeouts++;
+      req.client.tell(new Feedback(req.clientReqId, req.key, null, STATUS.ERROR, req.act), getSelf());
+      req.timedOut = true;
+      if (req.act == ACT.UPDATE) { abortUpdate((PendingRequest.Update<StoreValue>) req); }
+      else { completedRequests.put(req.reqId, req); } // The late answers still update the latency of their nodes
+    }
+  }
+
+  /**
+   * Releases the locks taken by an update which has not reached its quorum, instead of waiting for their lease
+   */
+  private void abortUpdate (PendingRequest.Update<StoreValue> req) {
+    unlock(req.key, getSelf(), req.reqId);
+    multicast(new UnlockItem(req.reqId, req.key), req.involvedNodes);
+    if (req.fallbacks != null) { multicast(new UnlockItem(req.reqId, req.key), req.fallbacks); }
+    completedRequests.put(req.reqId, req); // The answers still waiting in a queue are unlocked on arrival
+  }
+
+  void onPendingUpdateTimeout (PendingUpdateTimeout msg) {
+    unlock(msg.key, null, -1); // The lease of the update has expired
+  }
+
+  void onJoinTimeout (JoinTimeout msg) {
+    // Check if the request is still pending after timeout
+    if (pendingJoinOrRecovery != null) { 
+      completeJoinOrRecovery();
+    }
+  }
+
+  void onGetStats (GetStats msg) {
+    getSender().tell(new Stats(idNode, ignoredGets, timeouts, repairedItems, readRepairs, gets, hedges), getSelf());
+  }
+
+  void onHedgeTimeout (HedgeTimeout msg) {
+    PendingRequest.Request<StoreValue> req = pendingRequests.get(msg.reqId);
+    if (req == null) { return; }
+    log.record(Event.HEDGE, msg.reqId, req.key, -1, null, hedgeDelay);
+    hedges++;
+    askReplicas((PendingRequest.Get<StoreValue>) req, 1);
+  }
+
+  void onReadRepairTick (ReadRepairTick msg) {
+    // Every node gets at most one batch per interval, the rest waits for the next one
+    for (Map.Entry<Integer, Map<Integer, StoreValue>> e : readRepairQueues.entrySet()) {
+      BatchBuilder batch = new BatchBuilder();
+      Iterator<Map.Entry<Integer, StoreValue>> it = e.getValue().entrySet().iterator();
+      while (it.hasNext() && batch.size < readRepairBatch) {
+        Map.Entry<Integer, StoreValue> item = it.next();
+        batch.add(-1, item.getKey(), item.getValue());
+        it.remove();
+      }
+      multicast(new UpdateItemBatch(Arrays.copyOf(batch.ids, batch.size), Arrays.copyOf(batch.keys, batch.size), Arrays.copyOf(batch.values, batch.size)), new int[] { e.getKey() });
+      readRepairs += batch.size;
+      log.record(Event.READ_REPAIR, -1, -1, e.getKey(), null, batch.size);
+    }
+    readRepairQueues.values().removeIf(Map::isEmpty);
+    if (!readRepairQueues.isEmpty()) {
+      getTimers().startSingleTimer(ReadRepairTick.INSTANCE, ReadRepairTick.INSTANCE, readRepairInterval);
     }
   }
 
+  void onRepairTick (RepairTick msg) {
+    if (pendingJoinOrRecovery != null) { return; }
+    int[] peers = ring.getReplicaPeers(idNode);
+    if (peers.length == 0) { return; }
+    int peer = peers[ThreadLocalRandom.current().nextInt(peers.length)];
+    multicast(new RepairDigest(idNode, getDigest(peer)), new int[] { peer });
+  }
+
+  void onHintTick (HintTick msg) {
+    for (Integer target : new ArrayList<>(hints.targets())) {
+      deliverHints(target);
+    }
+  }
+
+  void onRepairDigest (RepairDigest msg) {
+    boolean[] diverged = StoreDigest.diff(getDigest(msg.idSender), msg.digest);
+    if (StoreDigest.count(diverged) == 0) { return; }
+    log.record(Event.REPAIR, -1, -1, msg.idSender, null, StoreDigest.count(diverged));
+    getSender().tell(new RepairBuckets(idNode, diverged), getSelf());
+    startTransfer(msg.idSender, getSender(), PartitionTransfer.KIND.REPAIR, getKeysByNode(msg.idSender, diverged), null);
+  }
+
+  void onRepairBuckets (RepairBuckets msg) {
+    // The peer streams its items of the buckets here, and gets ours; both sides keep the newer versions
+    startTransfer(msg.idSender, getSender(), PartitionTransfer.KIND.REPAIR, getKeysByNode(msg.idSender, msg.buckets), null);
+  }
+
+  void onTakeSnapshot(TakeSnapshot msg) {
+    if (snapshot == null || snapshotView != null) { return; } // Disabled, or the previous one is still being written
+    // The view and the rotation of the log are taken at the same point, so the rotated records are all in the view
+    snapshotView = store.snapshot();
+    if (wal != null) { wal.rotate(); }
+    ActorRef self = getSelf();
+    snapshot.write(snapshotView).whenComplete((items, e) -> self.tell(new SnapshotDone(e == null ? items : -1), ActorRef.noSender()));
+  }
+
+  void onSnapshotDone(SnapshotDone msg) {
+    snapshotView.release();
+    snapshotView = null;
+    if (msg.items < 0) {
+      log.record(Event.SNAPSHOT_FAILED);
+      return;
+    }
+    if (wal != null) { wal.dropRotated(); }
+    log.record(Event.SNAPSHOT_TAKEN, -1, -1, msg.items, null, null);
+  }
+
   void onCrash(Crash msg) {
     crashed = true;
     getContext().become(crashed());
-    log("Crashed!", false);
-    updateStoreUI();    
+    log.record(Event.CRASHED);
+    hooks.onCrashed(true);
+    // A recovery in progress is abandoned, so that the next Recovery starts over
+    getTimers().cancel(JoinTimeout.INSTANCE);
+    pendingJoinOrRecovery = null;
+    recovering = false;
+    // Transfers in progress are lost with the crash
+    outgoing.clear();
+    incoming.clear();
+    finished.clear();
+    awaiting.clear();
+    readRepairQueues.clear();
+    completedRequests.clear();
+    pendingUpdates.clear();
+    // With a write-ahead log or snapshots the crash loses the memory, as a real one would
+    if (wal != null || snapshot != null) {
+      if (wal != null) { wal.crash(); }
+      if (hints != null) { hints.crash(); }
+      for (int key : store.keys()) { storeListener.onRemove(key); }
+      store.clear();
+      digests = null;
+    }
   }
 
-  void onRecovery(Recovery msg) {
+  void onRecovery(Recovery msg) throws IOException {
     if (recovering) { return; }
-    log("Recovering....");
+    log.record(Event.RECOVERING);
     getContext().become(createReceive());
     recovering = true;
+    restore();
+    nodesAskedAt = System.nanoTime();
     msg.recoveryNode.tell(new GetNodes(idNode), getSelf());
   }
 
@@ -594,11 +1990,32 @@ public class Node extends AbstractActor {
       .match(GetNodes.class, this::onGetNodes)
       .match(GetNodesResponse.class, this::onGetNodesResponse)
       .match(GetItems.class, this::onGetItems)
-      .match(GetItemsResponse.class, this::onGetItemsResponse)
+      .match(TransferChunk.class, this::onTransferChunk)
+      .match(TransferAck.class, this::onTransferAck)
+      .match(TransferTimeout.class, this::onTransferTimeout)
       .match(GetItem.class, this::onGetItem)
       .match(GetItemResponse.class, this::onGetItemResponse)
       .match(UpdateItem.class, this::onUpdateItem) 
+      .match(UpdateHint.class, this::onUpdateHint)
+      .match(UnlockItem.class, this::onUnlockItem)
+      .match(MultiGet.class, this::onMultiGet)
+      .match(MultiUpdate.class, this::onMultiUpdate)
+      .match(GetItemBatch.class, this::onGetItemBatch)
+      .match(GetItemBatchResponse.class, this::onGetItemBatchResponse)
+      .match(UpdateItemBatch.class, this::onUpdateItemBatch)
       .match(Crash.class, this::onCrash) 
+      .match(RequestTimeout.class, this::onRequestTimeout)
+      .match(PendingUpdateTimeout.class, this::onPendingUpdateTimeout)
+      .match(JoinTimeout.class, this::onJoinTimeout)
+      .match(GetStats.class, this::onGetStats)
+      .match(RepairTick.class, this::onRepairTick)
+      .match(HintTick.class, this::onHintTick)
+      .match(ReadRepairTick.class, this::onReadRepairTick)
+      .match(HedgeTimeout.class, this::onHedgeTimeout)
+      .match(RepairDigest.class, this::onRepairDigest)
+      .match(RepairBuckets.class, this::onRepairBuckets)
+      .match(TakeSnapshot.class, this::onTakeSnapshot)
+      .match(SnapshotDone.class, this::onSnapshotDone)
       .matchAny(msg -> {})
       .build();
   }
@@ -606,6 +2023,10 @@ public class Node extends AbstractActor {
   public Receive crashed() {
     return receiveBuilder()
       .match(Recovery.class, this::onRecovery)
+      // Timeouts armed before the crash keep releasing the pending state
+      .match(RequestTimeout.class, this::onRequestTimeout)
+      .match(PendingUpdateTimeout.class, this::onPendingUpdateTimeout)
+      .match(SnapshotDone.class, this::onSnapshotDone)
       .matchAny(msg -> {})
       .build();
   }
@@ -0,0 +1,44 @@
+package system;
+
+/**
+ * Optional hooks through which a node exposes its state (e.g. to a UI).
+ * The methods are invoked by the node actor, so implementations must not block.
+ */
+public interface NodeHooks {
+
+  /** Hooks of a headless node */
+  public static final NodeHooks NONE = new NodeHooks() {};
+
+  /**
+   * Invoked by the logging thread, not by the node
+   * @param log A log line of the node
+   */
+  default void onLog (String log) {}
+
+  /**
+   * @return The listener notified of every change to the store of the node
+   */
+  default StoreListener getStoreListener () {
+    return StoreListener.NONE;
+  }
+
+  /**
+   * @param crashed Whether the node crashed or recovered
+   */
+  default void onCrashed (boolean crashed) {}
+
+  /**
+   * @return Artificial delay (milliseconds) added to the responses of the node, only for test purposes
+   */
+  default int getResponseDelay () {
+    return 0;
+  }
+
+  /**
+   * @param millis Artificial delay (milliseconds) to add to the responses of the node
+   * @throws UnsupportedOperationException If the delay of these hooks cannot be changed
+   */
+  default void setResponseDelay (int millis) {
+    throw new UnsupportedOperationException("Response delay not adjustable");
+  }
+}
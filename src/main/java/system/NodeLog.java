@@ -0,0 +1,280 @@
+package system;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import akka.actor.ActorRef;
+
+/**
+ * Bounded, single-producer ring buffer of structured log events of a node.
+ * The node only stores the fields of the event; a shared background thread renders the events,
+ * prints them and forwards them to the hooks of the node. When the buffer is full the events are dropped.
+ */
+public class NodeLog {
+
+  public static enum Level { DEBUG, INFO, WARN, OFF };
+
+  public static enum Event {
+    NODES_REQUESTED(Level.INFO),
+    NODES_RECEIVED(Level.INFO),
+    ITEMS_REQUESTED(Level.INFO),
+    ITEMS_RECEIVED(Level.INFO),
+    NODE_JOINED(Level.INFO),
+    LEAVE_REQUESTED(Level.INFO),
+    ITEMS_FROM_LEAVING(Level.INFO),
+    GET_ITEM(Level.DEBUG),
+    GET_ITEM_IGNORED(Level.INFO),
+    GET_ITEM_QUEUED(Level.DEBUG),
+    GET_ITEM_BATCH(Level.DEBUG),
+    UPDATE_ITEM(Level.DEBUG),
+    COORDINATING_GET(Level.DEBUG),
+    COORDINATING_UPDATE(Level.DEBUG),
+    COORDINATING_MULTI(Level.DEBUG),
+    RESPONSE(Level.DEBUG),
+    RESPONSE_IGNORED(Level.DEBUG),
+    QUORUM_REACHED(Level.DEBUG),
+    TIMEOUT(Level.WARN),
+    CRASHED(Level.WARN),
+    RECOVERING(Level.INFO),
+    WAL_REPLAYED(Level.INFO),
+    WAL_TRUNCATED(Level.WARN),
+    SNAPSHOT_LOADED(Level.INFO),
+    SNAPSHOT_TAKEN(Level.INFO),
+    SNAPSHOT_FAILED(Level.WARN),
+    SNAPSHOT_CORRUPTED(Level.WARN),
+    REPAIR(Level.INFO),
+    TRANSFER_ABORTED(Level.WARN),
+    FALLBACK(Level.DEBUG),
+    HINT_STORED(Level.DEBUG),
+    HINTS_LOADED(Level.INFO),
+    HINTS_DELIVERED(Level.INFO),
+    HINTS_RECEIVED(Level.INFO),
+    READ_REPAIR(Level.DEBUG),
+    HEDGE(Level.DEBUG);
+
+    public final Level level;
+    Event(Level level) {
+      this.level = level;
+    }
+  }
+
+  private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+  private static final List<NodeLog> logs = new CopyOnWriteArrayList<>();
+  private static Thread consumer;
+
+  private final int idNode;
+  private final Level level;
+  private final NodeHooks hooks;
+  private final int mask;
+
+  // Slots of the ring buffer, written only by the node
+  private final Event[] events;
+  private final long[] times;
+  private final int[] reqIds, keys, ids;
+  private final Object[] peers, values;
+
+  private long head;                              // Next slot to write (node only)
+  private final AtomicLong published;             // Slots visible to the consumer
+  private volatile long consumed;                 // Slots released by the consumer
+  private volatile long dropped;                  // Events dropped because the buffer was full
+  private long droppedReported;                   // (consumer only)
+  private boolean failureReported;                // Whether an event already failed to render or reach the hooks (consumer only)
+  private volatile boolean closed;
+
+  /**
+   * @param idNode   The node owning the log
+   * @param level    Minimum level of the recorded events
+   * @param capacity Size of the buffer, rounded up to a power of two
+   * @param hooks    Hooks of the node receiving the rendered events
+   */
+  public NodeLog (int idNode, Level level, int capacity, NodeHooks hooks) {
+    int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+    this.idNode = idNode;
+    this.level = level;
+    this.hooks = hooks;
+    this.mask = size - 1;
+    this.events = new Event[size];
+    this.times = new long[size];
+    this.reqIds = new int[size];
+    this.keys = new int[size];
+    this.ids = new int[size];
+    this.peers = new Object[size];
+    this.values = new Object[size];
+    this.published = new AtomicLong();
+    if (level != Level.OFF) { register(this); }
+  }
+
+  public boolean isEnabled (Event event) {
+    return event.level.compareTo(level) >= 0;
+  }
+
+  /**
+   * Records an event; only the references are stored, the rendering is done by the consumer thread
+   * @param event Type of the event
+   * @param reqId Request id (if any)
+   * @param key   Key of the item (if any)
+   * @param id    Id of the node the event refers to (if any)
+   * @param peer  Actor which sent the message (if any)
+   * @param value Value involved in the event (if any)
+   */
+  public void record (Event event, int reqId, int key, int id, Object peer, Object value) {
+    if (!isEnabled(event)) { return; }
+    if (head - consumed > mask) {
+      dropped++;
+      return;
+    }
+    int i = (int) head & mask;
+    events[i] = event;
+    times[i] = System.currentTimeMillis();
+    reqIds[i] = reqId;
+    keys[i] = key;
+    ids[i] = id;
+    peers[i] = peer;
+    values[i] = value;
+    published.lazySet(++head);
+  }
+
+  public void record (Event event) {
+    record(event, -1, -1, -1, null, null);
+  }
+
+  /**
+   * Stops the log once the pending events have been rendered
+   */
+  public void close () {
+    closed = true;
+  }
+
+  private String render (int i) {
+    switch (events[i]) {
+      case NODES_REQUESTED:     return "Node " + ids[i] + " requested the list of nodes in the system";
+      case NODES_RECEIVED:      return "Received list of nodes from " + name(peers[i]);
+      case ITEMS_REQUESTED:     return "Node " + ids[i] + " requested items";
+      case ITEMS_RECEIVED:      return "Received " + ids[i] + " items from " + name(peers[i]);
+      case NODE_JOINED:         return "Node " + ids[i] + " joined!";
+      case LEAVE_REQUESTED:     return "Requested to leave";
+      case ITEMS_FROM_LEAVING:  return "Received " + ids[i] + " items from leaving " + name(peers[i]);
+      case GET_ITEM:            return "GET(" + keys[i] + ") from " + name(peers[i]);
+      case GET_ITEM_IGNORED:    return "[IGNORED] GET(" + keys[i] + ") from " + name(peers[i]) + "; too many requests waiting for the item";
+      case GET_ITEM_QUEUED:     return "[WAITING] GET(" + keys[i] + ") from " + name(peers[i]) + "; item locked by an update";
+      case GET_ITEM_BATCH:      return values[i] + "_BATCH(" + ids[i] + " keys) from " + name(peers[i]);
+      case UPDATE_ITEM:         return "UPDATE(" + keys[i] + ", " + values[i] + ") from " + name(peers[i]);
+      case COORDINATING_GET:    return "Coordinating: GET(" + keys[i] + ") ";
+      case COORDINATING_UPDATE: return "Coordinating: UPDATE(" + keys[i] + ", " + values[i] + ")";
+      case COORDINATING_MULTI:  return "Coordinating: MULTI_" + values[i] + " #" + reqIds[i] + " (" + ids[i] + " keys)";
+      case RESPONSE:            return "Response for Get #" + reqIds[i] + " from " + name(peers[i]) + ": " + values[i];
+      case RESPONSE_IGNORED:    return "[IGNORED] Response for Get #" + reqIds[i] + " from " + name(peers[i]) + ": " + values[i];
+      case QUORUM_REACHED:      return "Quorum reached for " + values[i] + " #" + reqIds[i];
+      case TIMEOUT:             return "Timeout for " + values[i] + " #" + reqIds[i];
+      case CRASHED:             return "Crashed!";
+      case RECOVERING:          return "Recovering....";
+      case WAL_REPLAYED:        return "Replayed " + ids[i] + " records of the write-ahead log";
+      case WAL_TRUNCATED:       return "Cut " + values[i] + " bytes of corrupted tail from the write-ahead log";
+      case SNAPSHOT_LOADED:     return "Loaded " + ids[i] + " items from the snapshot";
+      case SNAPSHOT_TAKEN:      return "Snapshot of " + ids[i] + " items written";
+      case SNAPSHOT_FAILED:     return "Snapshot failed";
+      case SNAPSHOT_CORRUPTED:  return "Snapshot corrupted, ignored";
+      case TRANSFER_ABORTED:    return values[i] + " transfer to " + name(peers[i]) + " aborted at offset " + ids[i];
+      case FALLBACK:            return "Node " + ids[i] + " suspected crashed, asking Node " + values[i] + " for " + keys[i];
+      case HINT_STORED:         return "Hint for Node " + ids[i] + ": UPDATE(" + keys[i] + ", " + values[i] + ")";
+      case HINTS_LOADED:        return "Loaded " + ids[i] + " hints";
+      case HINTS_DELIVERED:     return "Delivered " + ids[i] + " hints to " + name(peers[i]);
+      case HINTS_RECEIVED:      return "Received " + ids[i] + " hinted writes from " + name(peers[i]);
+      case READ_REPAIR:         return "Read repair of " + values[i] + " items sent to Node " + ids[i];
+      case HEDGE:               return "No answer for Get #" + reqIds[i] + " within " + values[i] + " us, asking another replica";
+      case REPAIR:              return "Repairing " + values[i] + " diverged buckets with Node " + ids[i];
+      default:                  return events[i].toString();
+    }
+  }
+
+  private static String name (Object peer) {
+    return peer instanceof ActorRef ? ((ActorRef) peer).path().name() : String.valueOf(peer);
+  }
+
+  /**
+   * Renders the published events (consumer thread only)
+   * @return Whether there were events to render
+   */
+  private boolean drain (Writer out) throws IOException {
+    long last = published.get();
+    long lost = dropped;
+    if (consumed == last && lost == droppedReported) { return false; }
+    for (long seq = consumed; seq < last; ++seq) {
+      int i = (int) seq & mask;
+      String log = null;
+      try {
+        log = render(i);
+      } catch (RuntimeException e) {
+        failed(events[i] + " event", e);
+      }
+      long time = times[i];
+      peers[i] = values[i] = null; // Release the references
+      consumed = seq + 1;          // Released before the hooks, so an event that fails is not retried
+      if (log == null) { continue; }
+      out.write(TIME_FORMAT.format(Instant.ofEpochMilli(time)) + ": [Node_" + idNode + "] " + log + "\n");
+      try {
+        hooks.onLog(log);
+      } catch (RuntimeException e) {
+        failed("log hook", e);
+      }
+    }
+    if (lost != droppedReported) {
+      out.write("[Node_" + idNode + "] " + (lost - droppedReported) + " log events dropped\n");
+      droppedReported = lost;
+    }
+    return true;
+  }
+
+  /**
+   * Reports the first failure of the log, the later ones are only skipped
+   */
+  private void failed (String what, RuntimeException e) {
+    if (failureReported) { return; }
+    failureReported = true;
+    System.err.println("[Node_" + idNode + "] " + what + " failed, the events failing from now on are skipped silently");
+    e.printStackTrace();
+  }
+
+  private static synchronized void register (NodeLog log) {
+    logs.add(log);
+    if (consumer != null) { return; }
+    consumer = new Thread(NodeLog::consume, "kvstore-logger");
+    consumer.setDaemon(true);
+    consumer.start();
+  }
+
+  private static void consume () {
+    Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+    boolean outputFailed = false;
+    while (true) {
+      boolean busy = false;
+      // A failure of the output does not stop the other logs from being drained
+      for (NodeLog log : logs) {
+        try {
+          boolean wasClosed = log.closed;
+          busy |= log.drain(out);
+          if (wasClosed && log.consumed == log.published.get()) { logs.remove(log); }
+        } catch (IOException e) {
+          if (!outputFailed) { e.printStackTrace(); }
+          outputFailed = true;
+        }
+      }
+      try {
+        out.flush();
+      } catch (IOException e) {
+        if (!outputFailed) { e.printStackTrace(); }
+        outputFailed = true;
+      }
+      if (!busy) { LockSupport.parkNanos(1_000_000); }
+    }
+  }
+}
@@ -0,0 +1,547 @@
+package system;
+
+import java.io.NotSerializableException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import akka.actor.ActorRef;
+import akka.actor.ExtendedActorSystem;
+import akka.serialization.Serialization;
+import akka.serialization.SerializerWithStringManifest;
+import system.PendingRequest.ACT;
+
+/**
+ * Binary format of the messages exchanged by nodes and clients, bound to them in application.conf
+ * (akka.actor.serialization-bindings) in place of Java serialization.
+ * The manifest names the message and the payload starts with the version of the format; payloads of older versions
+ * are still read, so nodes can be upgraded one at a time. Ints and longs are
+ * zigzag varints (so small and -1 ids take one byte), keys in arrays are delta encoded, strings and arrays are
+ * length-prefixed, and key/value collections are written as packed (key, version, value) runs.
+ * Actor references are written as their serialized path and resolved by the receiving system.
+ */
+public class NodeSerializer extends SerializerWithStringManifest {
+
+  public static final int IDENTIFIER = 7411;
+  private static final byte VERSION = 2;        // Version written
+  private static final byte OLDEST_VERSION = 1; // Oldest version read: Get and Update of version 1 have no consistency level and timeout
+
+  // Manifests of the messages
+  private static final String
+    NODE_LEAVE = "L", GET = "G", UPDATE = "U", FEEDBACK = "F", MULTI_GET = "MG", MULTI_UPDATE = "MU",
+    MULTI_FEEDBACK = "MF", CRASH = "C", RECOVERY = "R", GET_STATS = "GS", TAKE_SNAPSHOT = "TS", STATS = "S",
+    NODE_HELLO = "NH", NODE_GOODBYE = "NB", GET_NODES = "GN", GET_NODES_RESPONSE = "GNR", GET_ITEMS = "GIS",
+    TRANSFER_CHUNK = "TC", TRANSFER_ACK = "TA", REPAIR_DIGEST = "RD", REPAIR_BUCKETS = "RB", GET_ITEM = "GI",
+    GET_ITEM_BATCH = "GIB", GET_ITEM_BATCH_RESPONSE = "GIBR", UPDATE_ITEM_BATCH = "UIB", GET_ITEM_RESPONSE = "GIR",
+    UPDATE_ITEM = "UI", UNLOCK_ITEM = "UL", UPDATE_HINT = "UH";
+
+  private static final Map<Class<?>, String> MANIFESTS = new HashMap<>();
+  static {
+    MANIFESTS.put(Node.NodeLeave.class, NODE_LEAVE);
+    MANIFESTS.put(Node.Get.class, GET);
+    MANIFESTS.put(Node.Update.class, UPDATE);
+    MANIFESTS.put(Node.Feedback.class, FEEDBACK);
+    MANIFESTS.put(Node.MultiGet.class, MULTI_GET);
+    MANIFESTS.put(Node.MultiUpdate.class, MULTI_UPDATE);
+    MANIFESTS.put(Node.MultiFeedback.class, MULTI_FEEDBACK);
+    MANIFESTS.put(Node.Crash.class, CRASH);
+    MANIFESTS.put(Node.Recovery.class, RECOVERY);
+    MANIFESTS.put(Node.GetStats.class, GET_STATS);
+    MANIFESTS.put(Node.TakeSnapshot.class, TAKE_SNAPSHOT);
+    MANIFESTS.put(Node.Stats.class, STATS);
+    MANIFESTS.put(Node.NodeHello.class, NODE_HELLO);
+    MANIFESTS.put(Node.NodeGoodbye.class, NODE_GOODBYE);
+    MANIFESTS.put(Node.GetNodes.class, GET_NODES);
+    MANIFESTS.put(Node.GetNodesResponse.class, GET_NODES_RESPONSE);
+    MANIFESTS.put(Node.GetItems.class, GET_ITEMS);
+    MANIFESTS.put(Node.TransferChunk.class, TRANSFER_CHUNK);
+    MANIFESTS.put(Node.TransferAck.class, TRANSFER_ACK);
+    MANIFESTS.put(Node.RepairDigest.class, REPAIR_DIGEST);
+    MANIFESTS.put(Node.RepairBuckets.class, REPAIR_BUCKETS);
+    MANIFESTS.put(Node.GetItem.class, GET_ITEM);
+    MANIFESTS.put(Node.GetItemBatch.class, GET_ITEM_BATCH);
+    MANIFESTS.put(Node.GetItemBatchResponse.class, GET_ITEM_BATCH_RESPONSE);
+    MANIFESTS.put(Node.UpdateItemBatch.class, UPDATE_ITEM_BATCH);
+    MANIFESTS.put(Node.GetItemResponse.class, GET_ITEM_RESPONSE);
+    MANIFESTS.put(Node.UpdateItem.class, UPDATE_ITEM);
+    MANIFESTS.put(Node.UnlockItem.class, UNLOCK_ITEM);
+    MANIFESTS.put(Node.UpdateHint.class, UPDATE_HINT);
+  }
+
+  private static final ACT[] ACTS = ACT.values();
+  private static final Node.STATUS[] STATUSES = Node.STATUS.values();
+  private static final Node.CONSISTENCY[] CONSISTENCIES = Node.CONSISTENCY.values();
+  private static final PartitionTransfer.KIND[] KINDS = PartitionTransfer.KIND.values();
+
+  private final ExtendedActorSystem system;
+
+  public NodeSerializer(ExtendedActorSystem system) {
+    this.system = system;
+  }
+
+  @Override
+  public int identifier() {
+    return IDENTIFIER;
+  }
+
+  @Override
+  public String manifest(Object o) {
+    String manifest = MANIFESTS.get(o.getClass());
+    if (manifest == null) { throw new IllegalArgumentException("Cannot serialize " + o.getClass().getName()); }
+    return manifest;
+  }
+
+  /* -------------------------------------- ENCODING ---------------------------------------- */
+
+  /**
+   * Growable output buffer
+   */
+  static final class Output {
+    private byte[] buf = new byte[64];
+    private int pos;
+
+    private void ensure(int n) {
+      if (pos + n > buf.length) { buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n)); }
+    }
+
+    void writeByte(int b) {
+      ensure(1);
+      buf[pos++] = (byte) b;
+    }
+
+    void writeVarLong(long v) {
+      ensure(10);
+      while ((v & ~0x7fL) != 0) {
+        buf[pos++] = (byte) ((v & 0x7f) | 0x80);
+        v >>>= 7;
+      }
+      buf[pos++] = (byte) v;
+    }
+
+    /** Zigzag varint */
+    void writeInt(int v) {
+      writeVarLong(((v << 1) ^ (v >> 31)) & 0xffffffffL);
+    }
+
+    /** Zigzag varint */
+    void writeLong(long v) {
+      writeVarLong((v << 1) ^ (v >> 63));
+    }
+
+    /** Length of an array, or null */
+    void writeLength(Object array, int length) {
+      writeVarLong(array == null ? 0 : length + 1L);
+    }
+
+    void writeFixedLong(long v) {
+      ensure(8);
+      for (int i = 56; i >= 0; i -= 8) { buf[pos++] = (byte) (v >>> i); }
+    }
+
+    void writeString(String s) {
+      if (s == null) {
+        writeVarLong(0);
+        return;
+      }
+      byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+      writeVarLong(bytes.length + 1L);
+      ensure(bytes.length);
+      System.arraycopy(bytes, 0, buf, pos, bytes.length);
+      pos += bytes.length;
+    }
+
+    void writeValue(StoreValue value) {
+      if (value == null) {
+        writeByte(0);
+        return;
+      }
+      writeByte(1);
+      writeInt(value.getVersion());
+      writeString(value.getValue());
+    }
+
+    void writeInts(int[] a) {
+      writeLength(a, a == null ? 0 : a.length);
+      if (a != null) { for (int v : a) { writeInt(v); } }
+    }
+
+    /** Ints delta encoded, for keys which are often sorted */
+    void writeKeys(int[] a) {
+      writeLength(a, a == null ? 0 : a.length);
+      if (a == null) { return; }
+      int prev = 0;
+      for (int v : a) {
+        writeInt(v - prev);
+        prev = v;
+      }
+    }
+
+    void writeValues(StoreValue[] a) {
+      writeLength(a, a == null ? 0 : a.length);
+      if (a != null) { for (StoreValue v : a) { writeValue(v); } }
+    }
+
+    void writeDigest(long[] a) {
+      writeLength(a, a == null ? 0 : a.length);
+      if (a != null) { for (long v : a) { writeFixedLong(v); } }
+    }
+
+    void writeBits(boolean[] a) {
+      writeLength(a, a == null ? 0 : a.length);
+      if (a == null) { return; }
+      for (int i = 0; i < a.length; i += 8) {
+        int b = 0;
+        for (int j = i; j < Math.min(i + 8, a.length); ++j) { if (a[j]) { b |= 1 << (j - i); } }
+        writeByte(b);
+      }
+    }
+
+    void writeActor(ActorRef ref) {
+      writeString(ref == null ? null : Serialization.serializedActorPath(ref));
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(buf, pos);
+    }
+  }
+
+  @Override
+  public byte[] toBinary(Object o) {
+    Output out = new Output();
+    out.writeByte(VERSION);
+    if (o instanceof Node.Get) {
+      Node.Get m = (Node.Get) o;
+      out.writeInt(m.key);
+      out.writeLong(m.reqId);
+      out.writeByte(m.consistency.ordinal());
+      out.writeInt(m.timeout);
+    } else if (o instanceof Node.Update) {
+      Node.Update m = (Node.Update) o;
+      out.writeInt(m.key);
+      out.writeString(m.value);
+      out.writeLong(m.reqId);
+      out.writeByte(m.consistency.ordinal());
+      out.writeInt(m.timeout);
+    } else if (o instanceof Node.Feedback) {
+      Node.Feedback m = (Node.Feedback) o;
+      out.writeLong(m.reqId);
+      out.writeInt(m.key);
+      out.writeValue(m.value);
+      out.writeByte(m.status.ordinal());
+      out.writeByte(m.act.ordinal());
+    } else if (o instanceof Node.MultiGet) {
+      Node.MultiGet m = (Node.MultiGet) o;
+      out.writeKeys(m.keys);
+      out.writeLong(m.reqId);
+    } else if (o instanceof Node.MultiUpdate) {
+      Node.MultiUpdate m = (Node.MultiUpdate) o;
+      out.writeVarLong(m.values.size());
+      for (Map.Entry<Integer, String> e : m.values.entrySet()) {
+        out.writeInt(e.getKey());
+        out.writeString(e.getValue());
+      }
+      out.writeLong(m.reqId);
+    } else if (o instanceof Node.MultiFeedback) {
+      Node.MultiFeedback m = (Node.MultiFeedback) o;
+      out.writeLong(m.reqId);
+      out.writeByte(m.act.ordinal());
+      out.writeKeys(m.keys);
+      out.writeValues(m.values);
+      for (Node.STATUS s : m.statuses) { out.writeByte(s.ordinal()); }
+    } else if (o instanceof Node.Recovery) {
+      out.writeActor(((Node.Recovery) o).recoveryNode);
+    } else if (o instanceof Node.Stats) {
+      Node.Stats m = (Node.Stats) o;
+      out.writeInt(m.idNode);
+      out.writeLong(m.ignoredGets);
+      out.writeLong(m.timeouts);
+      out.writeLong(m.repairedItems);
+      out.writeLong(m.readRepairs);
+      out.writeLong(m.gets);
+      out.writeLong(m.hedges);
+    } else if (o instanceof Node.NodeHello) {
+      out.writeInt(((Node.NodeHello) o).idSender);
+    } else if (o instanceof Node.NodeGoodbye) {
+      out.writeInt(((Node.NodeGoodbye) o).idSender);
+    } else if (o instanceof Node.GetNodes) {
+      out.writeInt(((Node.GetNodes) o).idNew);
+    } else if (o instanceof Node.GetNodesResponse) {
+      Node.GetNodesResponse m = (Node.GetNodesResponse) o;
+      out.writeInt(m.idSender);
+      out.writeVarLong(m.nodes.size());
+      for (Map.Entry<Integer, ActorRef> e : m.nodes.entrySet()) {
+        out.writeInt(e.getKey());
+        out.writeActor(e.getValue());
+      }
+    } else if (o instanceof Node.GetItems) {
+      Node.GetItems m = (Node.GetItems) o;
+      out.writeInt(m.idSender);
+      out.writeDigest(m.digest);
+    } else if (o instanceof Node.TransferChunk) {
+      Node.TransferChunk m = (Node.TransferChunk) o;
+      out.writeInt(m.streamId);
+      out.writeInt(m.offset);
+      out.writeInt(m.end);
+      out.writeByte(m.kind.ordinal());
+      out.writeKeys(m.keys);
+      out.writeValues(m.values);
+      out.writeByte(m.last ? 1 : 0);
+    } else if (o instanceof Node.TransferAck) {
+      Node.TransferAck m = (Node.TransferAck) o;
+      out.writeInt(m.streamId);
+      out.writeInt(m.offset);
+      out.writeInt(m.credit);
+    } else if (o instanceof Node.RepairDigest) {
+      Node.RepairDigest m = (Node.RepairDigest) o;
+      out.writeInt(m.idSender);
+      out.writeDigest(m.digest);
+    } else if (o instanceof Node.RepairBuckets) {
+      Node.RepairBuckets m = (Node.RepairBuckets) o;
+      out.writeInt(m.idSender);
+      out.writeBits(m.buckets);
+    } else if (o instanceof Node.GetItem) {
+      Node.GetItem m = (Node.GetItem) o;
+      out.writeInt(m.reqId);
+      out.writeInt(m.key);
+      out.writeByte(m.act.ordinal());
+    } else if (o instanceof Node.GetItemBatch) {
+      Node.GetItemBatch m = (Node.GetItemBatch) o;
+      out.writeKeys(m.reqIds);
+      out.writeInts(m.keys);
+      out.writeByte(m.act.ordinal());
+    } else if (o instanceof Node.GetItemBatchResponse) {
+      Node.GetItemBatchResponse m = (Node.GetItemBatchResponse) o;
+      out.writeKeys(m.reqIds);
+      out.writeValues(m.values);
+    } else if (o instanceof Node.UpdateItemBatch) {
+      Node.UpdateItemBatch m = (Node.UpdateItemBatch) o;
+      out.writeKeys(m.reqIds);
+      out.writeKeys(m.keys);
+      out.writeValues(m.values);
+    } else if (o instanceof Node.GetItemResponse) {
+      Node.GetItemResponse m = (Node.GetItemResponse) o;
+      out.writeInt(m.reqId);
+      out.writeValue(m.value);
+    } else if (o instanceof Node.UpdateItem) {
+      Node.UpdateItem m = (Node.UpdateItem) o;
+      out.writeInt(m.reqId);
+      out.writeInt(m.key);
+      out.writeValue(m.value);
+    } else if (o instanceof Node.UnlockItem) {
+      Node.UnlockItem m = (Node.UnlockItem) o;
+      out.writeInt(m.reqId);
+      out.writeInt(m.key);
+    } else if (o instanceof Node.UpdateHint) {
+      Node.UpdateHint m = (Node.UpdateHint) o;
+      out.writeInt(m.reqId);
+      out.writeInt(m.target);
+      out.writeInt(m.key);
+      out.writeValue(m.value);
+    } else {
+      manifest(o); // Messages without fields only need the manifest; fails for the unknown ones
+    }
+    return out.toByteArray();
+  }
+
+  /* -------------------------------------- DECODING ---------------------------------------- */
+
+  static final class Input {
+    private final byte[] buf;
+    private int pos;
+
+    Input(byte[] buf) {
+      this.buf = buf;
+    }
+
+    int readByte() {
+      return buf[pos++] & 0xff;
+    }
+
+    long readVarLong() {
+      long v = 0;
+      for (int shift = 0; ; shift += 7) {
+        byte b = buf[pos++];
+        v |= (long) (b & 0x7f) << shift;
+        if (b >= 0) { return v; }
+      }
+    }
+
+    int readInt() {
+      int v = (int) readVarLong();
+      return (v >>> 1) ^ -(v & 1);
+    }
+
+    long readLong() {
+      long v = readVarLong();
+      return (v >>> 1) ^ -(v & 1);
+    }
+
+    /** @return The length of an array, or -1 if null */
+    int readLength() {
+      return (int) readVarLong() - 1;
+    }
+
+    long readFixedLong() {
+      long v = 0;
+      for (int i = 0; i < 8; ++i) { v = (v << 8) | (buf[pos++] & 0xff); }
+      return v;
+    }
+
+    String readString() {
+      int length = readLength();
+      if (length < 0) { return null; }
+      String s = new String(buf, pos, length, StandardCharsets.UTF_8);
+      pos += length;
+      return s;
+    }
+
+    StoreValue readValue() {
+      if (readByte() == 0) { return null; }
+      int version = readInt();
+      return new StoreValue(readString(), version);
+    }
+
+    int[] readInts() {
+      int length = readLength();
+      if (length < 0) { return null; }
+      int[] a = new int[length];
+      for (int i = 0; i < length; ++i) { a[i] = readInt(); }
+      return a;
+    }
+
+    int[] readKeys() {
+      int length = readLength();
+      if (length < 0) { return null; }
+      int[] a = new int[length];
+      int prev = 0;
+      for (int i = 0; i < length; ++i) { a[i] = prev += readInt(); }
+      return a;
+    }
+
+    StoreValue[] readValues() {
+      int length = readLength();
+      if (length < 0) { return null; }
+      StoreValue[] a = new StoreValue[length];
+      for (int i = 0; i < length; ++i) { a[i] = readValue(); }
+      return a;
+    }
+
+    long[] readDigest() {
+      int length = readLength();
+      if (length < 0) { return null; }
+      long[] a = new long[length];
+      for (int i = 0; i < length; ++i) { a[i] = readFixedLong(); }
+      return a;
+    }
+
+    boolean[] readBits() {
+      int length = readLength();
+      if (length < 0) { return null; }
+      boolean[] a = new boolean[length];
+      for (int i = 0; i < length; i += 8) {
+        int b = readByte();
+        for (int j = i; j < Math.min(i + 8, length); ++j) { a[j] = (b & (1 << (j - i))) != 0; }
+      }
+      return a;
+    }
+  }
+
+  private ActorRef readActor(Input in) {
+    String path = in.readString();
+    return path == null ? null : system.provider().resolveActorRef(path);
+  }
+
+  @Override
+  public Object fromBinary(byte[] bytes, String manifest) throws NotSerializableException {
+    Input in = new Input(bytes);
+    int version = in.readByte();
+    if (version < OLDEST_VERSION || version > VERSION) { throw new NotSerializableException("Unknown version " + version + " of " + manifest); }
+    switch (manifest) {
+      case NODE_LEAVE:
+        return new Node.NodeLeave();
+      case GET: {
+        int key = in.readInt();
+        long reqId = in.readLong();
+        return version < 2 ? new Node.Get(key, reqId) : new Node.Get(key, reqId, CONSISTENCIES[in.readByte()], in.readInt());
+      }
+      case UPDATE: {
+        int key = in.readInt();
+        String value = in.readString();
+        long reqId = in.readLong();
+        return version < 2 ? new Node.Update(key, value, reqId) : new Node.Update(key, value, reqId, CONSISTENCIES[in.readByte()], in.readInt());
+      }
+      case FEEDBACK:
+        return new Node.Feedback(in.readLong(), in.readInt(), in.readValue(), STATUSES[in.readByte()], ACTS[in.readByte()]);
+      case MULTI_GET:
+        return new Node.MultiGet(in.readKeys(), in.readLong());
+      case MULTI_UPDATE: {
+        int size = (int) in.readVarLong();
+        Map<Integer, String> values = new LinkedHashMap<>();
+        for (int i = 0; i < size; ++i) { values.put(in.readInt(), in.readString()); }
+        return new Node.MultiUpdate(values, in.readLong());
+      }
+      case MULTI_FEEDBACK: {
+        long reqId = in.readLong();
+        ACT act = ACTS[in.readByte()];
+        int[] keys = in.readKeys();
+        StoreValue[] values = in.readValues();
+        Node.STATUS[] statuses = new Node.STATUS[keys.length];
+        for (int i = 0; i < statuses.length; ++i) { statuses[i] = STATUSES[in.readByte()]; }
+        return new Node.MultiFeedback(reqId, act, keys, Arrays.asList(values), statuses);
+      }
+      case CRASH:
+        return new Node.Crash();
+      case RECOVERY:
+        return new Node.Recovery(readActor(in));
+      case GET_STATS:
+        return new Node.GetStats();
+      case TAKE_SNAPSHOT:
+        return Node.TakeSnapshot.INSTANCE;
+      case STATS:
+        return new Node.Stats(in.readInt(), in.readLong(), in.readLong(), in.readLong(), in.readLong(), in.readLong(), in.readLong());
+      case NODE_HELLO:
+        return new Node.NodeHello(in.readInt());
+      case NODE_GOODBYE:
+        return new Node.NodeGoodbye(in.readInt());
+      case GET_NODES:
+        return new Node.GetNodes(in.readInt());
+      case GET_NODES_RESPONSE: {
+        int idSender = in.readInt();
+        int size = (int) in.readVarLong();
+        Map<Integer, ActorRef> nodes = new HashMap<>();
+        for (int i = 0; i < size; ++i) { nodes.put(in.readInt(), readActor(in)); }
+        return new Node.GetNodesResponse(idSender, nodes);
+      }
+      case GET_ITEMS:
+        return new Node.GetItems(in.readInt(), in.readDigest());
+      case TRANSFER_CHUNK:
+        return new Node.TransferChunk(in.readInt(), in.readInt(), in.readInt(), KINDS[in.readByte()], in.readKeys(), in.readValues(), in.readByte() != 0);
+      case TRANSFER_ACK:
+        return new Node.TransferAck(in.readInt(), in.readInt(), in.readInt());
+      case REPAIR_DIGEST:
+        return new Node.RepairDigest(in.readInt(), in.readDigest());
+      case REPAIR_BUCKETS:
+        return new Node.RepairBuckets(in.readInt(), in.readBits());
+      case GET_ITEM:
+        return new Node.GetItem(in.readInt(), in.readInt(), ACTS[in.readByte()]);
+      case GET_ITEM_BATCH:
+        return new Node.GetItemBatch(in.readKeys(), in.readInts(), ACTS[in.readByte()]);
+      case GET_ITEM_BATCH_RESPONSE:
+        return new Node.GetItemBatchResponse(in.readKeys(), in.readValues());
+      case UPDATE_ITEM_BATCH:
+        return new Node.UpdateItemBatch(in.readKeys(), in.readKeys(), in.readValues());
+      case GET_ITEM_RESPONSE:
+        return new Node.GetItemResponse(in.readInt(), in.readValue());
+      case UPDATE_ITEM:
+        return new Node.UpdateItem(in.readInt(), in.readInt(), in.readValue());
+      case UNLOCK_ITEM:
+        return new Node.UnlockItem(in.readInt(), in.readInt());
+      case UPDATE_HINT:
+        return new Node.UpdateHint(in.readInt(), in.readInt(), in.readInt(), in.readValue());
+      default:
+        throw new NotSerializableException("Unknown manifest " + manifest);
+    }
+  }
+}
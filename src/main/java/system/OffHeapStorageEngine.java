@@ -0,0 +1,346 @@
+package system;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Storage of the items in direct memory: the values live in off-heap slabs and the heap holds only a primitive
+ * map from the keys to int handles (slab and slot), so a large store costs a small heap the GC scans quickly.
+ * Every slab is split into slots of a single size class (as in memcached); a record is [key, version, length,
+ * UTF-8 bytes] in the smallest class that fits it. Overwrites and removals free their slot right away, and once a
+ * class has enough free slots its emptiest slabs (occupancy below compactBelow) are evacuated into the others and
+ * returned to a pool shared by the classes.
+ * While a snapshot is active the slabs are frozen and the changes go to a heap overlay, as in MemoryStorageEngine.
+ */
+public class OffHeapStorageEngine implements StorageEngine {
+
+  public static final int SLAB_SIZE = 1 << 20;
+  private static final int HEADER = 12;                       // Key, version and length of a record
+  private static final int NULL_VALUE = -1, FREE = -2;        // Lengths marking a null value and a free slot
+  private static final int MAX_POOLED = 4;                    // Empty slabs kept for reuse, the others are dropped
+  private static final int[] CLASS_SIZE;                      // Slot sizes, growing by 1.25 up to the slab size
+  private static final StoreValue REMOVED = new StoreValue(null, -1);
+
+  static {
+    List<Integer> sizes = new ArrayList<>();
+    for (int size = 16; size < SLAB_SIZE; size = Math.max(size + 8, (size * 5 / 4 + 7) & ~7)) { sizes.add(size); }
+    sizes.add(SLAB_SIZE);
+    CLASS_SIZE = sizes.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  private final double compactBelow;
+  private IntIntMap index;          // Handle of each key: slab << 16 | slot
+  private ByteBuffer[] slabs;       // Slabs by id (null if dropped)
+  private int[] slabClass;          // Size class of each slab (-1 if empty)
+  private int[] slabLive;           // Records stored in each slab
+  private int slabCount;            // Ids used so far
+  private int[] emptySlabs;         // Ids of the slabs in the pool, stack of emptyCount ids
+  private int emptyCount;
+  private int pooled;               // Slabs of the pool still holding their buffer
+  private int[][] free;             // Free handles of each class, stack of freeCount handles
+  private int[] freeCount;
+  private int[] compactAt;          // Free handles of each class triggering the next attempt of compaction
+  private IntMap<StoreValue> overlay; // Changes during a snapshot (null if no snapshot is active)
+  private int size;                   // Items counted through the overlay
+
+  /**
+   * @param compactBelow Occupancy under which a slab is evacuated once its class has enough free slots
+   */
+  public OffHeapStorageEngine(double compactBelow) {
+    this.compactBelow = compactBelow;
+    reset();
+  }
+
+  private void reset() {
+    index = new IntIntMap();
+    slabs = new ByteBuffer[16];
+    slabClass = new int[16];
+    slabLive = new int[16];
+    slabCount = 0;
+    emptySlabs = new int[16];
+    emptyCount = 0;
+    pooled = 0;
+    free = new int[CLASS_SIZE.length][];
+    freeCount = new int[CLASS_SIZE.length];
+    compactAt = new int[CLASS_SIZE.length];
+    for (int c = 0; c < CLASS_SIZE.length; ++c) {
+      free[c] = new int[0];
+      compactAt[c] = 2 * slots(c);
+    }
+  }
+
+  private static int slots(int sizeClass) {
+    return SLAB_SIZE / CLASS_SIZE[sizeClass];
+  }
+
+  private static int classOf(int recordSize) {
+    int c = Arrays.binarySearch(CLASS_SIZE, recordSize);
+    return c >= 0 ? c : -c - 1;
+  }
+
+  private static int offset(int handle, int[] slabClass) {
+    return (handle & 0xffff) * CLASS_SIZE[slabClass[handle >>> 16]];
+  }
+
+  /**
+   * Reads a record; only reads the slabs, so a snapshot can call it from another thread
+   */
+  private static StoreValue read(ByteBuffer[] slabs, int[] slabClass, int handle) {
+    ByteBuffer slab = slabs[handle >>> 16];
+    int off = offset(handle, slabClass);
+    int version = slab.getInt(off + 4);
+    int length = slab.getInt(off + 8);
+    if (length == NULL_VALUE) { return new StoreValue(null, version); }
+    byte[] bytes = new byte[length];
+    // Bulk copy through a view, whose position is private to the reader
+    ByteBuffer view = slab.duplicate();
+    view.position(off + HEADER);
+    view.get(bytes);
+    return new StoreValue(new String(bytes, StandardCharsets.UTF_8), version);
+  }
+
+  @Override
+  public StoreValue get(int key) {
+    if (overlay != null) {
+      StoreValue value = overlay.get(key);
+      if (value != null) { return value == REMOVED ? null : value; }
+    }
+    int handle = index.get(key);
+    return handle == IntIntMap.NONE ? null : read(slabs, slabClass, handle);
+  }
+
+  @Override
+  public void put(int key, StoreValue value) {
+    if (overlay == null) {
+      write(key, value);
+      return;
+    }
+    if (get(key) == null) { size++; }
+    overlay.put(key, value);
+  }
+
+  @Override
+  public StoreValue remove(int key) {
+    StoreValue old = get(key);
+    if (old == null) { return null; }
+    if (overlay == null) {
+      release(index.remove(key));
+    } else {
+      size--;
+      overlay.put(key, REMOVED);
+    }
+    return old;
+  }
+
+  private void write(int key, StoreValue value) {
+    byte[] bytes = value.getValue() == null ? null : value.getValue().getBytes(StandardCharsets.UTF_8);
+    int length = bytes == null ? 0 : bytes.length;
+    if (HEADER + length > SLAB_SIZE) { throw new IllegalArgumentException("Value of " + length + " bytes exceeds the slab size"); }
+    int sizeClass = classOf(HEADER + length);
+    int old = index.get(key);
+    // Overwrite in place if the record keeps its class
+    int handle = old != IntIntMap.NONE && slabClass[old >>> 16] == sizeClass ? old : allocate(sizeClass);
+    ByteBuffer slab = slabs[handle >>> 16];
+    int off = offset(handle, slabClass);
+    slab.putInt(off, key);
+    slab.putInt(off + 4, value.getVersion());
+    slab.putInt(off + 8, bytes == null ? NULL_VALUE : length);
+    if (length > 0) {
+      ByteBuffer view = slab.duplicate();
+      view.position(off + HEADER);
+      view.put(bytes);
+    }
+    if (handle != old) {
+      index.put(key, handle);
+      if (old != IntIntMap.NONE) { release(old); }
+    }
+  }
+
+  private int allocate(int sizeClass) {
+    if (freeCount[sizeClass] == 0) { addSlab(sizeClass); }
+    int handle = free[sizeClass][--freeCount[sizeClass]];
+    slabLive[handle >>> 16]++;
+    return handle;
+  }
+
+  private void addSlab(int sizeClass) {
+    int id;
+    if (emptyCount > 0) {
+      id = emptySlabs[--emptyCount];
+    } else {
+      id = slabCount++;
+      if (id > 0x7fff) { throw new IllegalStateException("Off-heap store is full"); }
+      if (id == slabs.length) {
+        slabs = Arrays.copyOf(slabs, id * 2);
+        slabClass = Arrays.copyOf(slabClass, id * 2);
+        slabLive = Arrays.copyOf(slabLive, id * 2);
+      }
+    }
+    if (slabs[id] == null) {
+      slabs[id] = ByteBuffer.allocateDirect(SLAB_SIZE);
+    } else {
+      pooled--; // Buffer of the pool reused
+    }
+    slabClass[id] = sizeClass;
+    slabLive[id] = 0;
+    int n = slots(sizeClass);
+    for (int slot = 0; slot < n; ++slot) { slabs[id].putInt(slot * CLASS_SIZE[sizeClass] + 8, FREE); }
+    ensureFree(sizeClass, n);
+    // Pushed in reverse order, so the slots are taken from the start of the slab
+    for (int slot = n - 1; slot >= 0; --slot) { free[sizeClass][freeCount[sizeClass]++] = id << 16 | slot; }
+  }
+
+  private void ensureFree(int sizeClass, int n) {
+    if (free[sizeClass].length < freeCount[sizeClass] + n) {
+      free[sizeClass] = Arrays.copyOf(free[sizeClass], Math.max(2 * free[sizeClass].length, freeCount[sizeClass] + n));
+    }
+  }
+
+  private void release(int handle) {
+    int id = handle >>> 16, sizeClass = slabClass[id];
+    slabs[id].putInt(offset(handle, slabClass) + 8, FREE);
+    slabLive[id]--;
+    ensureFree(sizeClass, 1);
+    free[sizeClass][freeCount[sizeClass]++] = handle;
+    int n = slots(sizeClass);
+    if (slabLive[id] == 0 && freeCount[sizeClass] > n) {
+      evacuate(id, sizeClass); // Empty while the class has room elsewhere
+    } else if (freeCount[sizeClass] >= compactAt[sizeClass]) {
+      compact(sizeClass);
+    }
+  }
+
+  /**
+   * Evacuates the emptiest slabs of a class while the other slabs of the class have room for their records
+   */
+  private void compact(int sizeClass) {
+    int n = slots(sizeClass);
+    boolean evacuated = false;
+    while (true) {
+      int victim = -1;
+      for (int id = 0; id < slabCount; ++id) {
+        if (slabClass[id] == sizeClass && (victim < 0 || slabLive[id] < slabLive[victim])) { victim = id; }
+      }
+      if (victim < 0 || slabLive[victim] >= n * compactBelow || freeCount[sizeClass] - (n - slabLive[victim]) < slabLive[victim]) { break; }
+      evacuate(victim, sizeClass);
+      evacuated = true;
+    }
+    // Without progress, wait for another slab worth of free slots before scanning again
+    compactAt[sizeClass] = evacuated ? 2 * n : freeCount[sizeClass] + n;
+  }
+
+  private void evacuate(int victim, int sizeClass) {
+    // The free slots of the victim are not available anymore
+    int[] handles = free[sizeClass];
+    int kept = 0;
+    for (int i = 0; i < freeCount[sizeClass]; ++i) {
+      if (handles[i] >>> 16 != victim) { handles[kept++] = handles[i]; }
+    }
+    freeCount[sizeClass] = kept;
+    ByteBuffer from = slabs[victim];
+    int slotSize = CLASS_SIZE[sizeClass];
+    for (int slot = 0, n = slots(sizeClass); slot < n && slabLive[victim] > 0; ++slot) {
+      int off = slot * slotSize;
+      int length = from.getInt(off + 8);
+      if (length == FREE) { continue; }
+      int handle = allocate(sizeClass);
+      ByteBuffer to = slabs[handle >>> 16];
+      int dst = offset(handle, slabClass);
+      for (int i = 0, end = HEADER + Math.max(length, 0); i < end; ++i) { to.put(dst + i, from.get(off + i)); }
+      index.put(from.getInt(off), handle);
+      slabLive[victim]--;
+    }
+    // Back to the pool, dropping its buffer if the pool is full
+    slabClass[victim] = -1;
+    if (pooled == MAX_POOLED) {
+      slabs[victim] = null;
+    } else {
+      pooled++;
+    }
+    if (emptySlabs.length == emptyCount) { emptySlabs = Arrays.copyOf(emptySlabs, emptyCount * 2); }
+    emptySlabs[emptyCount++] = victim;
+  }
+
+  @Override
+  public int size() {
+    return overlay == null ? index.size() : size;
+  }
+
+  /**
+   * @return Bytes of direct memory held by the slabs
+   */
+  public long offHeapBytes() {
+    long n = 0;
+    for (int id = 0; id < slabCount; ++id) { if (slabs[id] != null) { n += SLAB_SIZE; } }
+    return n;
+  }
+
+  @Override
+  public void forEach(Visitor visitor) {
+    forEachInRange(Integer.MIN_VALUE, Integer.MAX_VALUE, true, visitor);
+  }
+
+  @Override
+  public void forEachInRange(int from, int to, Visitor visitor) {
+    forEachInRange(from, to, false, visitor);
+  }
+
+  private void forEachInRange(int from, int to, boolean all, Visitor visitor) {
+    index.forEach((key, handle) -> {
+      if ((all || (key >= from && key < to)) && (overlay == null || !overlay.containsKey(key))) { visitor.visit(key, read(slabs, slabClass, handle)); }
+    });
+    if (overlay == null) { return; }
+    overlay.forEach((key, value) -> {
+      if ((all || (key >= from && key < to)) && value != REMOVED) { visitor.visit(key, value); }
+    });
+  }
+
+  @Override
+  public int[] keys() {
+    return overlay == null ? index.keys() : StorageEngine.super.keys();
+  }
+
+  @Override
+  public Snapshot snapshot() {
+    if (overlay != null) { throw new IllegalStateException("A snapshot is already active"); }
+    IntIntMap frozen = index;
+    ByteBuffer[] frozenSlabs = slabs;
+    int[] frozenClasses = slabClass;
+    size = index.size();
+    overlay = new IntMap<>();
+    return new Snapshot() {
+      @Override
+      public void forEach(Visitor visitor) {
+        frozen.forEach((key, handle) -> visitor.visit(key, read(frozenSlabs, frozenClasses, handle)));
+      }
+      @Override
+      public void release() {
+        if (overlay == null || index != frozen) { return; } // Cleared meanwhile
+        IntMap<StoreValue> changes = overlay;
+        overlay = null;
+        changes.forEach((key, value) -> {
+          if (value != REMOVED) {
+            write(key, value);
+          } else if (index.get(key) != IntIntMap.NONE) {
+            OffHeapStorageEngine.this.release(index.remove(key));
+          }
+        });
+      }
+    };
+  }
+
+  @Override
+  public void clear() {
+    // The slabs may be still read by a snapshot: they are replaced instead of cleared
+    reset();
+    overlay = null;
+  }
+
+  @Override
+  public void close() {
+    clear();
+  }
+}
@@ -0,0 +1,103 @@
+package system;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import akka.actor.ActorRef;
+
+/**
+ * State of the streams moving items between nodes (join, recovery, leave, hinted handoff and repair).
+ * A stream sends the items of a list of keys in chunks; every chunk is acked by the receiver with the offset
+ * reached and the credit (chunks) the sender can have in flight beyond it. A sender that gets no ack resumes
+ * from the last acked offset, and the receiver drops the chunks it has already applied.
+ */
+public class PartitionTransfer {
+
+  public static enum KIND { ITEMS, HANDOFF, HINTS, REPAIR }; // Items requested by a joining/recovering node, items of a leaving node, hinted writes, items of diverged buckets
+
+  public static class Outgoing {
+    final int streamId, idTarget;
+    final ActorRef target;
+    final KIND kind;
+    final int[] keys;
+    final StoreValue[] values; // Values of the keys, or null to read them from the store when the chunk is sent
+    int acked, sent;    // Offsets in the keys
+    int limit;          // Offset the sender can reach without further acks
+    int retries;
+    boolean lastSent;
+
+    public Outgoing(int streamId, int idTarget, ActorRef target, KIND kind, int[] keys, StoreValue[] values, int limit) {
+      this.streamId = streamId;
+      this.idTarget = idTarget;
+      this.target = target;
+      this.kind = kind;
+      this.keys = keys;
+      this.values = values;
+      this.limit = limit;
+    }
+
+    boolean isComplete() {
+      return acked >= keys.length && lastSent;
+    }
+  }
+
+  public static class Incoming {
+    int offset;         // Next offset expected
+    int items;          // Items received
+    boolean complete;
+  }
+
+  /**
+   * Streams received completely, dropped from the streams in progress: the last ones are remembered, so that the
+   * chunks resent after a lost ack are acked again instead of starting a new stream (their senders give up after a
+   * few retries, so older ones are not needed)
+   */
+  public static class Finished {
+    private static final int CAPACITY = 256;
+
+    private static final class Stream {
+      final ActorRef sender;
+      final int streamId;
+      Stream(ActorRef sender, int streamId) {
+        this.sender = sender;
+        this.streamId = streamId;
+      }
+      @Override
+      public boolean equals(Object o) {
+        return o instanceof Stream && ((Stream) o).streamId == streamId && ((Stream) o).sender.equals(sender);
+      }
+      @Override
+      public int hashCode() {
+        return Objects.hash(sender, streamId);
+      }
+    }
+
+    private final Map<Stream, Integer> ends = new LinkedHashMap<Stream, Integer>() {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Stream, Integer> eldest) {
+        return size() > CAPACITY;
+      }
+    };
+
+    void add(ActorRef sender, int streamId, int end) {
+      ends.put(new Stream(sender, streamId), end);
+    }
+
+    /**
+     * @return The offset the stream ended at, or -1 if it is not among the last finished
+     */
+    int end(ActorRef sender, int streamId) {
+      Integer end = ends.get(new Stream(sender, streamId));
+      return end == null ? -1 : end;
+    }
+
+    void remove(ActorRef sender) {
+      ends.keySet().removeIf(stream -> stream.sender.equals(sender));
+    }
+
+    void clear() {
+      ends.clear();
+    }
+  }
+}
@@ -0,0 +1,57 @@
+package system;
+
+/**
+ * Answer latency of each peer, estimated as the retransmission timer of TCP does (RFC 6298): a moving average of
+ * the samples and a moving average of their deviation from it. The average plus four deviations bounds nearly all
+ * the latencies of a peer, and follows it within a few answers when it slows down or recovers.
+ * Not thread safe.
+ */
+public class PeerLatencies {
+
+  private static final class Estimate {
+    long average;     // Microseconds
+    long deviation;   // Microseconds
+  }
+
+  private final IntMap<Estimate> estimates = new IntMap<>();
+
+  /**
+   * Records the latency of an answer of a peer
+   * @param latency Microseconds
+   */
+  public void record (int peer, long latency) {
+    Estimate e = estimates.get(peer);
+    if (e == null) {
+      e = new Estimate();
+      e.average = latency;
+      e.deviation = latency / 2;
+      estimates.put(peer, e);
+      return;
+    }
+    e.deviation += (Math.abs(latency - e.average) - e.deviation) / 4;
+    e.average += (latency - e.average) / 8;
+  }
+
+  /**
+   * Records a latency for a peer only if it has not answered yet, as a first guess
+   */
+  public void guess (int peer, long latency) {
+    if (!estimates.containsKey(peer)) { record(peer, latency); }
+  }
+
+  /**
+   * @return The average latency of the peer (microseconds), or -1 if it has not answered yet
+   */
+  public long average (int peer) {
+    Estimate e = estimates.get(peer);
+    return e == null ? -1 : e.average;
+  }
+
+  /**
+   * @return The latency (microseconds) nearly all the answers of the peer stay below, or -1 if it has not answered yet
+   */
+  public long bound (int peer) {
+    Estimate e = estimates.get(peer);
+    return e == null ? -1 : e.average + 4 * e.deviation;
+  }
+}
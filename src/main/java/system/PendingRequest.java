@@ -1,9 +1,9 @@
 package system;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Set;
 
 import akka.actor.ActorRef;
 
@@ -35,6 +35,13 @@ public class PendingRequest {
     ActorRef client;
     Quorum<T> quorum;
     ACT act;
+    long clientReqId; // Id given by the client to the request
+    Multi<T> parent;  // Multi-key request the request is part of (if any)
+    int index;        // Position of the key in the parent request
+    long sentAt;      // Time of the first requests to the replicas (nanoseconds)
+    boolean timedOut; // Whether the request failed on timeout (its late answers are only measured)
+    private int[] askedIds;     // Peers asked after the first requests (null if none)
+    private long[] askedTimes;  // Time each of them was asked (nanoseconds)
 
     public Request (int reqId, ActorRef client, int key, int quorum) {
       this.reqId = reqId;
@@ -42,9 +49,38 @@ public class PendingRequest {
       this.key = key;
       this.quorum = new PendingRequest.Quorum<T>(quorum);
     }
+
+    /**
+     * Records the time a peer was asked, if later than the first requests
+     */
+    void asked (int id, long time) {
+      int n = askedIds == null ? 0 : askedIds.length;
+      askedIds = askedIds == null ? new int[1] : Arrays.copyOf(askedIds, n + 1);
+      askedTimes = askedTimes == null ? new long[1] : Arrays.copyOf(askedTimes, n + 1);
+      askedIds[n] = id;
+      askedTimes[n] = time;
+    }
+
+    /**
+     * @return The time the peer was asked (nanoseconds)
+     */
+    long askedAt (int id) {
+      if (askedIds != null) {
+        for (int i = 0; i < askedIds.length; ++i) {
+          if (askedIds[i] == id) { return askedTimes[i]; }
+        }
+      }
+      return sentAt;
+    }
   }
 
   public static class Get<T> extends Request<T> {    
+    List<ActorRef> responders = new ArrayList<>(4);  // Nodes which answered, used by the read repair
+    List<T> responses = new ArrayList<>(4);          // Their values
+    T result;                                        // Value returned to the client
+    int[] candidates;                                // Nodes to ask, best first (hedged reads only)
+    int asked;                                       // Candidates asked so far
+
     public Get (int reqId, ActorRef client, int key, int quorum) {
       super(reqId, client, key, quorum);
       this.act = ACT.GET;
@@ -54,7 +90,8 @@ public class PendingRequest {
   public static class Update<T> extends Request<T> {
     boolean updateLocal;
     String value;
-    Set<Integer> involvedNodes;
+    int[] involvedNodes;
+    int[] fallbacks;      // Nodes standing in for the suspected replicas, by position in involvedNodes (-1 if none); null if none
     
     public Update (int reqId, ActorRef client, int quorum, int key, String value) {
       super(reqId, client, key, quorum);
@@ -62,17 +99,83 @@ public class PendingRequest {
       this.value = value;
     }
 
-    public void setInvolvedNodes(Set<Integer> nodes, int idNode) {
-      this.involvedNodes = new HashSet<>(nodes);
-      this.updateLocal = this.involvedNodes.stream().anyMatch((nId) -> nId == idNode);
+    public void setInvolvedNodes(int[] nodes, int idNode) {
+      this.involvedNodes = nodes;
+      this.updateLocal = Ring.contains(nodes, idNode);
+    }
+  }
+
+  /**
+   * Request on multiple keys, made of one sub-request per key
+   */
+  public static class Multi<T> {
+    int reqId, remaining;
+    long clientReqId;
+    ActorRef client;
+    ACT act;
+    int[] keys, subReqIds;
+    List<T> values;
+    Node.STATUS[] statuses;
+
+    public Multi (int reqId, ActorRef client, ACT act, int[] keys) {
+      this.reqId = reqId;
+      this.client = client;
+      this.act = act;
+      this.keys = keys;
+      this.remaining = keys.length;
+      this.subReqIds = new int[keys.length];
+      this.values = new ArrayList<>(Collections.nCopies(keys.length, null));
+      this.statuses = new Node.STATUS[keys.length];
+    }
+
+    /**
+     * @return Whether all the sub-requests are completed
+     */
+    public boolean complete (int index, T value, Node.STATUS status) {
+      if (statuses[index] == null) {
+        values.set(index, value);
+        statuses[index] = status;
+        remaining--;
+      }
+      return remaining == 0;
     }
   }
 
   public static class Join<T> extends Request<T> {
     private static int joinCounter = 0;
+    private int[][] ranges;   // Holders of each key range of the node (hashed placement), null to count the peers
+    private boolean[] served; // Whether each range has been received from one of its holders
+
     public Join (int quorum) {
       super(joinCounter++, null, -1, quorum);
       this.act = ACT.JOIN;
     }
+
+    /**
+     * A join waiting for one complete transfer per key range, whatever the peers that cannot answer
+     * @param ranges The holders of each range, as returned by {@link Ring#getReplicaSets(int)}
+     */
+    public Join (int[][] ranges) {
+      this(0);
+      this.ranges = ranges;
+      this.served = new boolean[ranges.length];
+    }
+
+    /**
+     * Records the complete transfer of a peer
+     * @return Whether the node has received all its items
+     */
+    public boolean received (int peer) {
+      if (ranges == null) {
+        quorum.inc(null);
+        return quorum.reached();
+      }
+      boolean all = true;
+      for (int i = 0; i < ranges.length; ++i) {
+        served[i] |= Ring.contains(ranges[i], peer);
+        all &= served[i];
+      }
+      return all;
+    }
   }
 }
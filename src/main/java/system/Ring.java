@@ -0,0 +1,186 @@
+package system;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * Immutable snapshot of the ring of nodes. The preference list of every position is computed once,
+ * so that looking up the nodes responsible of a key is a binary search without allocations.
+ * A new ring has to be built whenever the membership changes.
+ * <p>
+ * With zero virtual nodes the keys are placed directly on the node ids; otherwise every node owns
+ * <code>vnodes</code> hashed tokens and the keys are hashed too, spreading the load evenly.
+ */
+public class Ring {
+
+  private static final int[] EMPTY = new int[0];
+
+  private final int replicas, vnodes;
+  private final int[] ids;            // Sorted ids of the nodes
+  private final int[] tokens;         // Sorted positions on the ring
+  private final int[] owners;         // Node owning each position
+  private final int[][] preferences;  // Preference list starting from each position of the ring
+
+  public Ring (Collection<Integer> ids, int replicas) {
+    this(ids, replicas, 0);
+  }
+
+  public Ring (Collection<Integer> ids, int replicas, int vnodes) {
+    this(ids.stream().mapToInt(Integer::intValue).toArray(), replicas, vnodes);
+  }
+
+  private Ring (int[] ids, int replicas, int vnodes) {
+    this.replicas = replicas;
+    this.vnodes = vnodes;
+    this.ids = Arrays.stream(ids).sorted().distinct().toArray();
+    int count = Math.min(this.ids.length, replicas);
+
+    if (vnodes <= 0) {
+      this.tokens = this.ids;
+      this.owners = this.ids;
+      this.preferences = new int[this.ids.length][];
+      for (int i = 0; i < this.ids.length; ++i) {
+        preferences[i] = new int[count];
+        for (int j = 0; j < count; ++j) {
+          preferences[i][j] = this.ids[(i + j) % this.ids.length];
+        }
+      }
+      return;
+    }
+
+    // Sort the tokens of all the nodes (ties broken by node id) keeping track of their owners
+    long[] sorted = new long[this.ids.length * vnodes];
+    for (int i = 0; i < this.ids.length; ++i) {
+      for (int v = 0; v < vnodes; ++v) {
+        sorted[i * vnodes + v] = ((long) Utils.murmur3(this.ids[i], v) << 32) | i;
+      }
+    }
+    Arrays.sort(sorted);
+    this.tokens = new int[sorted.length];
+    this.owners = new int[sorted.length];
+    for (int i = 0; i < sorted.length; ++i) {
+      tokens[i] = (int) (sorted[i] >> 32);
+      owners[i] = this.ids[(int) sorted[i]];
+    }
+
+    // Walk the ring clockwise from each token collecting distinct nodes
+    this.preferences = new int[tokens.length][];
+    for (int i = 0; i < tokens.length; ++i) {
+      int[] pref = new int[count];
+      for (int j = i, found = 0; found < count; j = (j + 1) % tokens.length) {
+        if (!contains(pref, found, owners[j])) { pref[found++] = owners[j]; }
+      }
+      preferences[i] = pref;
+    }
+  }
+
+  /**
+   * @param id Identifier of a node
+   * @return A ring which also contains the given node
+   */
+  public Ring with (int id) {
+    if (contains(ids, id)) { return this; }
+    int[] newIds = Arrays.copyOf(ids, ids.length + 1);
+    newIds[ids.length] = id;
+    return new Ring(newIds, replicas, vnodes);
+  }
+
+  public int size () {
+    return ids.length;
+  }
+
+  public boolean isHashed () {
+    return vnodes > 0;
+  }
+
+  /**
+   * Without virtual nodes the first node responsible of a key is the first one with an id greater than the key
+   * (or the last node of the ring if there is none); with virtual nodes it is the owner of the first token
+   * following the hash of the key. The others are its distinct successors.
+   * @param key Key of the involved item
+   * @return The ids of the nodes responsible of the item; the array is shared and must not be modified
+   */
+  public int[] getInvolvedNodes (int key) {
+    if (tokens.length == 0) { return EMPTY; }
+    return preferences[position(key)];
+  }
+
+  /**
+   * @param key     Key of the involved item
+   * @param exclude The nodes that cannot be chosen
+   * @return The first node following the ones responsible of the item (clockwise) that is not excluded, or -1
+   */
+  public int getFallbackNode (int key, IntPredicate exclude) {
+    if (tokens.length == 0) { return -1; }
+    int start = position(key);
+    for (int i = 0; i < tokens.length; ++i) {
+      int owner = owners[(start + i) % tokens.length];
+      if (!contains(preferences[start], owner) && !exclude.test(owner)) { return owner; }
+    }
+    return -1;
+  }
+
+  /**
+   * @return The index of the position of the ring where the preference list of the key starts
+   */
+  private int position (int key) {
+    int position = vnodes > 0 ? Utils.murmur3(key, 0) : key;
+    int lo = 0, hi = tokens.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (tokens[mid] > position) { hi = mid; }
+      else { lo = mid + 1; }
+    }
+    if (lo == tokens.length) { lo = vnodes > 0 ? 0 : lo - 1; }
+    return lo;
+  }
+
+  /**
+   * @param id Identifier of a node
+   * @return The ids of the other nodes sharing at least a key range with the given one
+   */
+  public int[] getReplicaPeers (int id) {
+    int[] peers = new int[ids.length];
+    int found = 0;
+    for (int[] pref : preferences) {
+      if (!contains(pref, id)) { continue; }
+      for (int n : pref) {
+        if (n != id && !contains(peers, found, n)) { peers[found++] = n; }
+      }
+    }
+    return Arrays.copyOf(peers, found);
+  }
+
+  /**
+   * @param id Identifier of a node
+   * @return For every distinct key range of the given node, the other nodes responsible of it
+   */
+  public int[][] getReplicaSets (int id) {
+    List<int[]> sets = new ArrayList<>();
+    for (int[] pref : preferences) {
+      if (!contains(pref, id)) { continue; }
+      int[] others = Arrays.stream(pref).filter((n) -> n != id).sorted().toArray();
+      if (sets.stream().noneMatch((s) -> Arrays.equals(s, others))) { sets.add(others); }
+    }
+    return sets.toArray(new int[0][]);
+  }
+
+  /**
+   * @param nodes A list of node ids, as returned by {@link #getInvolvedNodes(int)}
+   * @param id    Identifier of a node
+   * @return Whether the node is in the list
+   */
+  public static boolean contains (int[] nodes, int id) {
+    return contains(nodes, nodes.length, id);
+  }
+
+  private static boolean contains (int[] nodes, int length, int id) {
+    for (int i = 0; i < length; ++i) {
+      if (nodes[i] == id) { return true; }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,102 @@
+package system;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+import com.typesafe.config.Config;
+
+/**
+ * Storage of the items of a node.
+ * Engines are used only by the actor of their node, so they need not be thread-safe toward their callers.
+ */
+public interface StorageEngine {
+
+  interface Visitor {
+    void visit(int key, StoreValue value);
+  }
+
+  /**
+   * Point-in-time view of the items, which can be visited from another thread while the engine keeps changing
+   */
+  interface Snapshot {
+    void forEach(Visitor visitor);
+    /** Ends the snapshot; to be called by the owner of the engine once the visit is over */
+    void release();
+  }
+
+  /**
+   * @return The value of the key, or null if it is not stored
+   */
+  StoreValue get(int key);
+
+  void put(int key, StoreValue value);
+
+  /**
+   * @return The value removed, or null if the key was not stored
+   */
+  StoreValue remove(int key);
+
+  int size();
+
+  default boolean isEmpty() {
+    return size() == 0;
+  }
+
+  /**
+   * Visits all the items (the engine must not be modified during the visit)
+   */
+  void forEach(Visitor visitor);
+
+  /**
+   * Visits the items with keys in [from, to) (the engine must not be modified during the visit)
+   */
+  void forEachInRange(int from, int to, Visitor visitor);
+
+  /**
+   * @return A copy of all the stored keys
+   */
+  default int[] keys() {
+    int[] keys = new int[size()];
+    int[] i = { 0 };
+    forEach((key, value) -> keys[i[0]++] = key);
+    return keys;
+  }
+
+  /**
+   * @return A view of the current items; at most one snapshot can be active at a time
+   */
+  Snapshot snapshot();
+
+  /**
+   * Removes all the items
+   */
+  void clear();
+
+  /**
+   * Releases the resources of the engine; the items are kept if the engine is persistent
+   */
+  default void close() {}
+
+  /**
+   * @param config The configuration of the system
+   * @param idNode The node the engine is created for
+   * @return The engine selected by kvstore.storage.engine
+   */
+  static StorageEngine create(Config config, int idNode) throws IOException {
+    String engine = config.getString("kvstore.storage.engine");
+    switch (engine) {
+      case "memory":
+        return new MemoryStorageEngine();
+      case "lsm":
+        return new LsmStorageEngine(
+          Paths.get(config.getString("kvstore.storage.lsm.dir"), "node-" + idNode),
+          config.getInt("kvstore.storage.lsm.memtable-size"),
+          config.getInt("kvstore.storage.lsm.max-segments")
+        );
+      case "offheap":
+        return new OffHeapStorageEngine(config.getDouble("kvstore.storage.offheap.compact-below"));
+      default:
+        throw new IllegalArgumentException("Unknown storage engine " + engine);
+    }
+  }
+}
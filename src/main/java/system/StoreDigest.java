@@ -0,0 +1,84 @@
+package system;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * Bucketed digest of a set of items: the keys are hashed into a fixed number of buckets and the digest of a bucket
+ * is the sum of the hashes of its (key, version) pairs. The sum does not depend on the order of the items, so two
+ * nodes holding the same versions of the same keys compute the same digest, and comparing two digests tells which
+ * buckets hold diverged items.
+ */
+public final class StoreDigest {
+
+  private StoreDigest() {}
+
+  /**
+   * @param key     Key of an item
+   * @param buckets Number of buckets of the digest
+   * @return The bucket of the key
+   */
+  public static int bucket(int key, int buckets) {
+    return Math.floorMod(Utils.murmur3(key, 0x5eed), buckets);
+  }
+
+  /**
+   * @return The hash of a version of an item (SplitMix64 finalizer)
+   */
+  static long hash(int key, int version) {
+    long z = ((long) key << 32) ^ (version & 0xffffffffL);
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  /**
+   * @param store   The items
+   * @param buckets Number of buckets of the digest
+   * @param filter  Selection of the keys to include
+   * @return The digest of the selected items
+   */
+  public static long[] compute(StorageEngine store, int buckets, IntPredicate filter) {
+    long[] digest = new long[buckets];
+    store.forEach((key, value) -> {
+      if (filter.test(key)) { add(digest, key, value.getVersion()); }
+    });
+    return digest;
+  }
+
+  /**
+   * Adds a version of an item to a digest
+   */
+  public static void add(long[] digest, int key, int version) {
+    digest[bucket(key, digest.length)] += hash(key, version);
+  }
+
+  /**
+   * Removes a version of an item from a digest (the sums wrap around, so the removal is exact)
+   */
+  public static void remove(long[] digest, int key, int version) {
+    digest[bucket(key, digest.length)] -= hash(key, version);
+  }
+
+  /**
+   * @return Which buckets differ between two digests; all of them if the digests have different sizes
+   */
+  public static boolean[] diff(long[] a, long[] b) {
+    boolean[] diff = new boolean[a.length];
+    if (a.length != b.length) {
+      Arrays.fill(diff, true);
+      return diff;
+    }
+    for (int i = 0; i < a.length; ++i) { diff[i] = a[i] != b[i]; }
+    return diff;
+  }
+
+  /**
+   * @return The number of buckets set in a diff
+   */
+  public static int count(boolean[] diff) {
+    int n = 0;
+    for (boolean d : diff) { if (d) { n++; } }
+    return n;
+  }
+}
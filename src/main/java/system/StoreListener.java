@@ -0,0 +1,27 @@
+package system;
+
+/**
+ * Receives the changes to the store of a node, one key at a time.
+ * The methods are invoked by the node actor, so implementations must be cheap and must not block.
+ */
+public interface StoreListener {
+
+  /** Listener ignoring every change */
+  public static final StoreListener NONE = new StoreListener() {
+    @Override
+    public void onPut (int key, StoreValue value) {}
+    @Override
+    public void onRemove (int key) {}
+  };
+
+  /**
+   * @param key   Key of the item
+   * @param value New value of the item
+   */
+  void onPut (int key, StoreValue value);
+
+  /**
+   * @param key Key of the removed item
+   */
+  void onRemove (int key);
+}
@@ -0,0 +1,174 @@
+package system;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary image of the store of a node: [magic][items][count][CRC32 of the items][magic],
+ * item = [key][version][length of the value, -1 if null][UTF-8 bytes].
+ * A snapshot is written to a temporary file and renamed when complete, so the file is always the last complete image.
+ */
+public class StoreSnapshot {
+
+  private static final int MAGIC = 0x4b565350; // "KVSP"
+  private static final int TRAILER_SIZE = 12;
+
+  /** Results of load when no item is loaded */
+  public static final int NONE = -1, CORRUPTED = -2;
+
+  private static final Executor writer = Executors.newSingleThreadExecutor(r -> {
+    Thread t = new Thread(r, "kvstore-snapshot");
+    t.setDaemon(true);
+    return t;
+  });
+
+  private final Path path;
+
+  public StoreSnapshot(Path path) {
+    this.path = path;
+  }
+
+  public Path getPath() {
+    return path;
+  }
+
+  /**
+   * Writes a view of the store in background
+   * @return The number of items written
+   */
+  public CompletableFuture<Integer> write(StorageEngine.Snapshot view) {
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        return writeNow(view);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }, writer);
+  }
+
+  private int writeNow(StorageEngine.Snapshot view) throws IOException {
+    if (path.getParent() != null) { Files.createDirectories(path.getParent()); }
+    Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+    int[] count = { 0 };
+    CRC32 crc = new CRC32();
+    try (FileOutputStream file = new FileOutputStream(tmp.toFile())) {
+      DataOutputStream header = new DataOutputStream(file);
+      header.writeInt(MAGIC);
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(file, crc), 1 << 16));
+      IOException[] error = { null };
+      view.forEach((key, value) -> {
+        if (error[0] != null) { return; }
+        try {
+          byte[] bytes = value.getValue() == null ? null : value.getValue().getBytes(StandardCharsets.UTF_8);
+          out.writeInt(key);
+          out.writeInt(value.getVersion());
+          out.writeInt(bytes == null ? -1 : bytes.length);
+          if (bytes != null) { out.write(bytes); }
+          count[0]++;
+        } catch (IOException e) {
+          error[0] = e;
+        }
+      });
+      if (error[0] != null) { throw error[0]; }
+      out.flush();
+      header.writeInt(count[0]);
+      header.writeInt((int) crc.getValue());
+      header.writeInt(MAGIC);
+      file.getFD().sync();
+    }
+    Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    return count[0];
+  }
+
+  /**
+   * Applies the items of the snapshot, if there is a valid one
+   * @return The number of items loaded, NONE if there is no snapshot, CORRUPTED if it is not valid (nothing is loaded)
+   */
+  public int load(StorageEngine.Visitor consumer) throws IOException {
+    if (!Files.exists(path)) { return NONE; }
+    // The checksum is verified before anything is applied
+    if (read(null) < 0) { return CORRUPTED; }
+    return read(consumer);
+  }
+
+  /**
+   * @return The number of items, or -1 if the file is not valid
+   */
+  private int read(StorageEngine.Visitor consumer) throws IOException {
+    long length = Files.size(path);
+    if (length < 4 + TRAILER_SIZE) { return -1; }
+    CRC32 crc = new CRC32();
+    try (InputStream file = Files.newInputStream(path)) {
+      DataInputStream header = new DataInputStream(file);
+      if (header.readInt() != MAGIC) { return -1; }
+      CountingInputStream counter = new CountingInputStream(new CheckedInputStream(file, crc), length - 4 - TRAILER_SIZE);
+      DataInputStream in = new DataInputStream(new BufferedInputStream(counter, 1 << 16));
+      int count = 0;
+      byte[] bytes = new byte[64];
+      while (counter.remaining() > 0 || in.available() > 0) {
+        int key = in.readInt();
+        int version = in.readInt();
+        int size = in.readInt();
+        String value = null;
+        if (size > length) { return -1; }
+        if (size >= 0) {
+          if (bytes.length < size) { bytes = new byte[size]; }
+          in.readFully(bytes, 0, size);
+          value = new String(bytes, 0, size, StandardCharsets.UTF_8);
+        }
+        if (consumer != null) { consumer.visit(key, new StoreValue(value, version)); }
+        count++;
+      }
+      int expectedCount = header.readInt(), expectedCrc = header.readInt(), magic = header.readInt();
+      return magic == MAGIC && expectedCount == count && expectedCrc == (int) crc.getValue() ? count : -1;
+    } catch (EOFException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Stream limited to the items region of the file
+   */
+  private static final class CountingInputStream extends InputStream {
+    private final InputStream in;
+    private long remaining;
+    CountingInputStream(InputStream in, long limit) {
+      this.in = in;
+      this.remaining = limit;
+    }
+    long remaining() {
+      return remaining;
+    }
+    @Override
+    public int read() throws IOException {
+      if (remaining <= 0) { return -1; }
+      int b = in.read();
+      if (b >= 0) { remaining--; }
+      return b;
+    }
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (remaining <= 0) { return -1; }
+      int n = in.read(b, off, (int) Math.min(len, remaining));
+      if (n > 0) { remaining -= n; }
+      return n;
+    }
+  }
+}
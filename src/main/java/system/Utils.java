@@ -1,19 +1,45 @@
 package system;
 
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
 public class Utils {
 
-  // public class TimerMillis { }
+  // Single shared timer thread for timeouts scheduled from outside the actors (e.g. UI and test drivers)
+  private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor((r) -> {
+    Thread t = new Thread(r, "kvstore-timer");
+    t.setDaemon(true);
+    return t;
+  });
 
   public static void setTimeout(Runnable runnable, int delay){
-    new Thread(() -> {
+    timer.schedule(() -> {
       try {
-        Thread.sleep(delay);
         runnable.run();
       }
       catch (Exception e){
         System.err.println(e);
       }
-    }).start();
+    }, delay, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * MurmurHash3 (x86, 32 bit) of a single int
+   * @param value The value to hash
+   * @param seed  The seed of the hash
+   * @return The hash of the value
+   */
+  public static int murmur3(int value, int seed) {
+    int k = value * 0xcc9e2d51;
+    k = Integer.rotateLeft(k, 15) * 0x1b873593;
+    int h = Integer.rotateLeft(seed ^ k, 13) * 5 + 0xe6546b64;
+    h ^= 4;
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    return h ^ (h >>> 16);
   }
 
 }
@@ -0,0 +1,315 @@
+package system;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of the changes to the store of a node.
+ * Every record is framed as [payload length][CRC32 of the payload][payload], so a torn or corrupted tail is
+ * detected and cut on replay. Records are buffered and written by a shared background thread (group commit):
+ * a batch is written (and forced to disk, if fsync is enabled) when it reaches syncBatch records or syncInterval
+ * milliseconds after its first record, whichever comes first. The records of the last batch can therefore be
+ * lost by a crash; the replicas hold them anyway. If the writer fails, the records are lost and every following
+ * append throws, so the node does not acknowledge changes it cannot log.
+ */
+public class WriteAheadLog implements Closeable {
+
+  public interface Consumer {
+    void onPut(int key, StoreValue value);
+    void onRemove(int key);
+  }
+
+  private static final byte PUT = 1, REMOVE = 2;
+  private static final int HEADER_SIZE = 8;
+
+  // One writer for all the logs: writes of a node are applied in order, fsyncs of different nodes are serialized
+  private static final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread t = new Thread(r, "kvstore-wal");
+    t.setDaemon(true);
+    return t;
+  });
+
+  private final Path path, rotated;
+  private FileChannel channel;          // Replaced by the writer thread on rotation
+  private final int syncBatch;
+  private final long syncInterval;
+  private final boolean fsync;
+  private volatile IOException failure; // First error of the writer thread (null if none)
+  private long truncated;               // Bytes cut from the tail by the last replay
+
+  // Current batch (guarded by this)
+  private ByteArrayOutputStream batch = new ByteArrayOutputStream();
+  private int records;
+  private boolean flushScheduled;
+
+  // Record encoding buffers, used only under the lock
+  private final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+  private final DataOutputStream payloadOut = new DataOutputStream(payload);
+  private final CRC32 crc = new CRC32();
+
+  /**
+   * @param path         File of the log, created if missing
+   * @param syncBatch    Maximum number of records of a batch
+   * @param syncInterval Maximum delay (milliseconds) of a record before it is written
+   * @param fsync        Whether every batch is forced to disk
+   */
+  public WriteAheadLog(Path path, int syncBatch, long syncInterval, boolean fsync) throws IOException {
+    if (path.getParent() != null) { Files.createDirectories(path.getParent()); }
+    this.path = path;
+    this.rotated = path.resolveSibling(path.getFileName() + ".prev");
+    this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    this.channel.position(channel.size());
+    this.syncBatch = syncBatch;
+    this.syncInterval = syncInterval;
+    this.fsync = fsync;
+  }
+
+  public Path getPath() {
+    return path;
+  }
+
+  public void put(int key, StoreValue value) {
+    append(PUT, key, value);
+  }
+
+  public void remove(int key) {
+    append(REMOVE, key, null);
+  }
+
+  private synchronized void append(byte type, int key, StoreValue value) {
+    if (failure != null) { throw new UncheckedIOException("WAL " + path + " failed", failure); }
+    try {
+      payload.reset();
+      payloadOut.writeByte(type);
+      payloadOut.writeInt(key);
+      if (type == PUT) {
+        payloadOut.writeInt(value.getVersion());
+        byte[] bytes = value.getValue() == null ? null : value.getValue().getBytes(StandardCharsets.UTF_8);
+        payloadOut.writeInt(bytes == null ? -1 : bytes.length);
+        if (bytes != null) { payloadOut.write(bytes); }
+      }
+      crc.reset();
+      crc.update(payload.toByteArray(), 0, payload.size());
+      DataOutputStream out = new DataOutputStream(batch);
+      out.writeInt(payload.size());
+      out.writeInt((int) crc.getValue());
+      payload.writeTo(batch);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e); // Not thrown by in-memory streams
+    }
+
+    if (++records >= syncBatch) {
+      writer.execute(this::flush);
+    } else if (!flushScheduled) {
+      flushScheduled = true;
+      writer.schedule(this::flush, syncInterval, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private synchronized ByteArrayOutputStream takeBatch() {
+    ByteArrayOutputStream b = batch;
+    batch = new ByteArrayOutputStream();
+    records = 0;
+    flushScheduled = false;
+    return b;
+  }
+
+  /**
+   * Writes the current batch; runs on the writer thread
+   */
+  private void flush() {
+    write(takeBatch());
+  }
+
+  private void write(ByteArrayOutputStream b) {
+    if (b.size() == 0 || !channel.isOpen()) { return; }
+    try {
+      ByteBuffer buf = ByteBuffer.wrap(b.toByteArray());
+      while (buf.hasRemaining()) { channel.write(buf); }
+      if (fsync) { channel.force(false); }
+    } catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  private void fail(IOException e) {
+    if (failure == null) { failure = e; }
+  }
+
+  /**
+   * Waits until the batches handed to the writer are on disk
+   */
+  private void await(Runnable task) {
+    try {
+      writer.submit(task).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /**
+   * Simulates the loss of the process: the batch not yet handed to the writer is discarded
+   */
+  public void crash() {
+    takeBatch();
+    await(() -> {});
+  }
+
+  /**
+   * Starts a new log; the records logged so far are kept apart until dropRotated is called
+   * (e.g. once a snapshot holding them is on disk). If the records of a previous rotation were not dropped,
+   * the current ones are appended to them.
+   */
+  public void rotate() {
+    ByteArrayOutputStream b = takeBatch(); // The records logged before the rotation
+    writer.execute(() -> {
+      write(b);
+      try {
+        channel.close();
+        if (Files.exists(rotated)) {
+          try (FileChannel target = FileChannel.open(rotated, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+               FileChannel source = FileChannel.open(path, StandardOpenOption.READ)) {
+            for (long pos = 0; pos < source.size(); ) { pos += source.transferTo(pos, source.size() - pos, target); }
+            if (fsync) { target.force(false); }
+          }
+          Files.delete(path);
+        } else {
+          Files.move(path, rotated, StandardCopyOption.ATOMIC_MOVE);
+        }
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      } catch (IOException e) {
+        fail(e);
+      }
+    });
+  }
+
+  /**
+   * Deletes the records of the last rotation
+   */
+  public void dropRotated() {
+    writer.execute(() -> {
+      try {
+        Files.deleteIfExists(rotated);
+      } catch (IOException e) {
+        fail(e);
+      }
+    });
+  }
+
+  /**
+   * Applies all the valid records of the log (rotated ones first) in order; a corrupted or torn tail is truncated
+   * @return The number of records replayed
+   */
+  public int replay(Consumer consumer) throws IOException {
+    await(() -> {});
+    truncated = 0;
+    int count = 0;
+    if (Files.exists(rotated)) {
+      try (FileChannel old = FileChannel.open(rotated, StandardOpenOption.READ)) {
+        count += replay(old, consumer, false);
+      }
+    }
+    return count + replay(channel, consumer, true);
+  }
+
+  private int replay(FileChannel channel, Consumer consumer, boolean truncate) throws IOException {
+    CRC32 crc = new CRC32();
+    long valid = 0;
+    int count = 0;
+    channel.position(0);
+    DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+    byte[] bytes = new byte[64];
+    while (true) {
+      int length, checksum;
+      try {
+        length = in.readInt();
+        checksum = in.readInt();
+        if (length < 0 || valid + HEADER_SIZE + length > channel.size()) { break; }
+        if (bytes.length < length) { bytes = new byte[length]; }
+        in.readFully(bytes, 0, length);
+      } catch (EOFException e) {
+        break;
+      }
+      crc.reset();
+      crc.update(bytes, 0, length);
+      if ((int) crc.getValue() != checksum) { break; }
+
+      DataInputStream record = new DataInputStream(new ByteArrayInputStream(bytes, 0, length));
+      byte type = record.readByte();
+      int key = record.readInt();
+      if (type == PUT) {
+        int version = record.readInt();
+        int size = record.readInt();
+        String value = size < 0 ? null : new String(bytes, 13, size, StandardCharsets.UTF_8);
+        consumer.onPut(key, new StoreValue(value, version));
+      } else {
+        consumer.onRemove(key);
+      }
+      valid += HEADER_SIZE + length;
+      count++;
+    }
+    if (truncate && valid < channel.size()) {
+      truncated = channel.size() - valid;
+      channel.truncate(valid);
+    }
+    if (truncate) { channel.position(valid); }
+    return count;
+  }
+
+  /**
+   * @return The bytes of corrupted or torn tail cut by the last replay
+   */
+  public long getTruncated() {
+    return truncated;
+  }
+
+  /**
+   * Closes the log and deletes its files (rotated records included)
+   */
+  public void delete() {
+    close();
+    try {
+      Files.deleteIfExists(path);
+      Files.deleteIfExists(rotated);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Writes the pending records and closes the log
+   * @throws UncheckedIOException If the records could not all be written
+   */
+  @Override
+  public void close() {
+    await(this::flush);
+    try {
+      channel.close();
+    } catch (IOException e) {
+      fail(e);
+    }
+    if (failure != null) { throw new UncheckedIOException("WAL " + path + " failed", failure); }
+  }
+}
@@ -0,0 +1,47 @@
+package tests;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Assertions of the headless tests: a failed check prints what was expected and exits with status 1
+ */
+final class Checks {
+
+  private static int passed;
+
+  private Checks () {}
+
+  static void check (boolean condition, String description) {
+    if (!condition) {
+      System.out.println("FAILED: " + description);
+      System.exit(1);
+    }
+    passed++;
+  }
+
+  static void checkEquals (Object expected, Object actual, String description) {
+    check(expected == null ? actual == null : expected.equals(actual), description + ": expected " + expected + ", got " + actual);
+  }
+
+  static void done (String test) {
+    System.out.println(test + ": " + passed + " checks passed");
+  }
+
+  static Path tempDir (String prefix) throws IOException {
+    Path dir = Files.createTempDirectory(prefix);
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> delete(dir)));
+    return dir;
+  }
+
+  private static void delete (Path dir) {
+    try (Stream<Path> files = Files.walk(dir)) {
+      files.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+    } catch (IOException e) {
+      // Temporary files, left to the system
+    }
+  }
+}
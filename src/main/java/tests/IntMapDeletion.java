@@ -0,0 +1,106 @@
+package tests;
+
+import static tests.Checks.check;
+import static tests.Checks.checkEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import system.IntIntMap;
+import system.IntMap;
+
+/**
+ * Removals of IntMap and IntIntMap, which shift back the entries following the removed one in its probe sequence:
+ * every key left stays reachable, also when the collisions wrap around the end of the table, and random workloads
+ * match a HashMap.
+ * Headless, run with: java tests.IntMapDeletion
+ */
+public class IntMapDeletion {
+
+  private static final int SMALL_CAPACITY = 16;   // Capacity of a new map, which holds up to 9 keys without growing
+
+  static int homeSlot(int key) {
+    return (key * 0x9E3779B9) >>> (Integer.numberOfLeadingZeros(SMALL_CAPACITY) + 1);
+  }
+
+  /**
+   * @return Keys whose home slots are the last two and the first one of a small table, so that their probe
+   *         sequences collide and wrap around its end
+   */
+  static List<Integer> wrappingKeys() {
+    List<Integer> keys = new ArrayList<>();
+    int[] wanted = { 3, 2, 1 };   // Keys wanted for the home slots 14, 15 and 0
+    for (int key = 0; keys.size() < 6; key++) {
+      int home = homeSlot(key);
+      int i = home == 14 ? 0 : home == 15 ? 1 : home == 0 ? 2 : -1;
+      if (i >= 0 && wanted[i] > 0) {
+        wanted[i]--;
+        keys.add(key);
+      }
+    }
+    return keys;
+  }
+
+  static void checkClusters(Random random) {
+    List<Integer> keys = wrappingKeys();
+    for (int round = 0; round < 200; round++) {
+      IntMap<String> map = new IntMap<>();
+      IntIntMap ints = new IntIntMap();
+      for (int key : keys) {
+        map.put(key, "v" + key);
+        ints.put(key, key + 1);
+      }
+      List<Integer> order = new ArrayList<>(keys);
+      Collections.shuffle(order, random);
+      for (int n = 0; n < order.size(); n++) {
+        int removed = order.get(n);
+        checkEquals("v" + removed, map.remove(removed), "IntMap value removed");
+        checkEquals(removed + 1, ints.remove(removed), "IntIntMap value removed");
+        checkEquals(null, map.get(removed), "IntMap key removed");
+        checkEquals(IntIntMap.NONE, ints.get(removed), "IntIntMap key removed");
+        for (int left : order.subList(n + 1, order.size())) {
+          checkEquals("v" + left, map.get(left), "IntMap key " + left + " after removing " + order.subList(0, n + 1));
+          checkEquals(left + 1, ints.get(left), "IntIntMap key " + left + " after removing " + order.subList(0, n + 1));
+        }
+      }
+      check(map.isEmpty() && ints.size() == 0, "maps empty after removing all the keys");
+    }
+  }
+
+  static void checkRandom(Random random) {
+    IntMap<Integer> map = new IntMap<>();
+    IntIntMap ints = new IntIntMap();
+    Map<Integer, Integer> model = new HashMap<>();
+    for (int op = 0; op < 200_000; op++) {
+      int key = random.nextInt(5000) - 2500;
+      if (random.nextInt(3) == 0) {
+        Integer expected = model.remove(key);
+        checkEquals(expected, map.remove(key), "IntMap remove " + key);
+        checkEquals(expected == null ? IntIntMap.NONE : expected, ints.remove(key), "IntIntMap remove " + key);
+      } else {
+        int value = random.nextInt(1_000_000);
+        Integer expected = model.put(key, value);
+        checkEquals(expected, map.put(key, value), "IntMap put " + key);
+        checkEquals(expected == null ? IntIntMap.NONE : expected, ints.put(key, value), "IntIntMap put " + key);
+      }
+    }
+    checkEquals(model.size(), map.size(), "IntMap size");
+    checkEquals(model.size(), ints.size(), "IntIntMap size");
+    for (int key = -2500; key < 2500; key++) {
+      Integer expected = model.get(key);
+      checkEquals(expected, map.get(key), "IntMap key " + key);
+      checkEquals(expected == null ? IntIntMap.NONE : expected, ints.get(key), "IntIntMap key " + key);
+    }
+  }
+
+  public static void main(String[] args) {
+    Random random = new Random(42);
+    checkClusters(random);
+    checkRandom(random);
+    Checks.done("IntMapDeletion");
+  }
+}
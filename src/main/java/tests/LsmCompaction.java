@@ -0,0 +1,106 @@
+package tests;
+
+import static tests.Checks.check;
+import static tests.Checks.checkEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import system.LsmStorageEngine;
+import system.StoreValue;
+
+/**
+ * Compactions of the LSM storage engine: removed keys stay removed across compactions and reopens, and a
+ * compaction interrupted after writing its result (older segments still on disk) is finished on open without
+ * older values reappearing.
+ * Headless, run with: java tests.LsmCompaction
+ */
+public class LsmCompaction {
+
+  static List<Path> files(Path dir) throws IOException {
+    try (Stream<Path> files = Files.list(dir)) {
+      return files.sorted().collect(Collectors.toList());
+    }
+  }
+
+  static void checkContent(LsmStorageEngine engine, Map<Integer, StoreValue> expected, int keys, String when) {
+    checkEquals(expected.size(), engine.size(), "size " + when);
+    for (int key = 0; key < keys; key++) {
+      StoreValue value = engine.get(key);
+      StoreValue model = expected.get(key);
+      if (model == null) {
+        check(value == null, "key " + key + " removed " + when);
+      } else {
+        check(value != null && model.getVersion() == value.getVersion(), "version of key " + key + " " + when);
+      }
+    }
+    int[] visited = new int[1];
+    engine.forEach((key, value) -> visited[0]++);
+    checkEquals(expected.size(), visited[0], "items visited " + when);
+  }
+
+  static void randomOperations(Path dir) throws IOException {
+    Random random = new Random(42);
+    Map<Integer, StoreValue> model = new HashMap<>();
+    LsmStorageEngine engine = new LsmStorageEngine(dir, 50, 3);
+    for (int i = 0; i < 20_000; i++) {
+      int key = random.nextInt(500);
+      if (random.nextInt(4) == 0) {
+        engine.remove(key);
+        model.remove(key);
+      } else {
+        StoreValue value = new StoreValue("v" + i, i);
+        engine.put(key, value);
+        model.put(key, value);
+      }
+    }
+    checkContent(engine, model, 500, "after the compactions");
+    engine.close();
+    engine = new LsmStorageEngine(dir, 50, 3);
+    checkContent(engine, model, 500, "after a reopen");
+    engine.close();
+  }
+
+  static void interruptedCompaction(Path dir, Path scratch) throws IOException {
+    // Six segments: keys 0..49, then the tombstones of keys 0..9
+    LsmStorageEngine engine = new LsmStorageEngine(dir, 10, 100);
+    for (int key = 0; key < 50; key++) { engine.put(key, new StoreValue("v" + key, 1)); }
+    for (int key = 0; key < 10; key++) { engine.remove(key); }
+    engine.close();
+    checkEquals(6, files(dir).size(), "segments before the compaction");
+
+    // The same segments compacted elsewhere, with one more segment that triggers the compaction
+    for (Path file : files(dir)) { Files.copy(file, scratch.resolve(file.getFileName())); }
+    engine = new LsmStorageEngine(scratch, 10, 1);
+    for (int key = 100; key < 110; key++) { engine.put(key, new StoreValue("w" + key, 1)); }
+    engine.close();
+    List<Path> result = files(scratch);
+    checkEquals(1, result.size(), "segments after the compaction");
+
+    // Crash after the result was written, before the merged segments were deleted
+    String name = result.get(0).getFileName().toString();
+    Files.copy(result.get(0), dir.resolve(name.replace(".sst", ".compacted")), StandardCopyOption.REPLACE_EXISTING);
+    engine = new LsmStorageEngine(dir, 10, 100);
+    Map<Integer, StoreValue> expected = new HashMap<>();
+    for (int key = 10; key < 50; key++) { expected.put(key, new StoreValue("v" + key, 1)); }
+    for (int key = 100; key < 110; key++) { expected.put(key, new StoreValue("w" + key, 1)); }
+    checkContent(engine, expected, 110, "after the interrupted compaction");
+    checkEquals(1, files(dir).size(), "segments left by the interrupted compaction");
+    engine.close();
+  }
+
+  public static void main(String[] args) throws IOException {
+    Path dir = Checks.tempDir("lsm-compaction");
+    randomOperations(Files.createDirectory(dir.resolve("random")));
+    interruptedCompaction(Files.createDirectory(dir.resolve("interrupted")), Files.createDirectory(dir.resolve("scratch")));
+    Checks.done("LsmCompaction");
+  }
+}
@@ -0,0 +1,118 @@
+package tests;
+
+import static tests.Checks.check;
+import static tests.Checks.checkEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import system.OffHeapStorageEngine;
+import system.StorageEngine;
+import system.StoreValue;
+
+/**
+ * Slabs of the off-heap storage engine: freed slots and empty slabs are reused instead of allocating new direct
+ * memory, sparse slabs are evacuated and dropped without losing records, and a snapshot sees the frozen slabs.
+ * Headless, run with: java tests.OffHeapReuse
+ */
+public class OffHeapReuse {
+
+  private static final int KEYS = 100_000;
+
+  static String value(int key, int round) {
+    StringBuilder sb = new StringBuilder(100).append(round).append(':').append(key).append(':');
+    while (sb.length() < 100) { sb.append('x'); }
+    return sb.toString();
+  }
+
+  static void checkContent(OffHeapStorageEngine engine, Map<Integer, StoreValue> expected, String when) {
+    checkEquals(expected.size(), engine.size(), "size " + when);
+    for (int key = 0; key < 2 * KEYS; key++) {
+      StoreValue value = engine.get(key);
+      StoreValue model = expected.get(key);
+      if (model == null) {
+        check(value == null, "key " + key + " absent " + when);
+      } else {
+        check(value != null && model.getValue().equals(value.getValue()) && model.getVersion() == value.getVersion(),
+          "key " + key + " " + when + ": expected " + model + ", got " + value);
+      }
+    }
+  }
+
+  public static void main(String[] args) {
+    OffHeapStorageEngine engine = new OffHeapStorageEngine(0.5);
+    Map<Integer, StoreValue> expected = new HashMap<>();
+    for (int key = 0; key < KEYS; key++) {
+      StoreValue v = new StoreValue(value(key, 0), 0);
+      engine.put(key, v);
+      expected.put(key, v);
+    }
+    long full = engine.offHeapBytes();
+    check(full >= 8L * OffHeapStorageEngine.SLAB_SIZE, "records spread over several slabs: " + full);
+
+    // Overwrites of the same size class take the slot of the old record
+    for (int round = 1; round <= 3; round++) {
+      for (int key = 0; key < KEYS; key++) {
+        StoreValue v = new StoreValue(value(key, round), round);
+        engine.put(key, v);
+        expected.put(key, v);
+      }
+    }
+    checkEquals(full, engine.offHeapBytes(), "direct memory after overwrites");
+    checkContent(engine, expected, "after overwrites");
+
+    // Removing every other record leaves all the slabs half full: no slab is worth evacuating yet
+    for (int key = 0; key < KEYS; key += 2) {
+      engine.remove(key);
+      expected.remove(key);
+    }
+    checkEquals(full, engine.offHeapBytes(), "direct memory after removing half of the records");
+    // New records fill the freed slots
+    for (int key = KEYS; key < KEYS + KEYS / 2; key++) {
+      StoreValue v = new StoreValue(value(key, 0), 0);
+      engine.put(key, v);
+      expected.put(key, v);
+    }
+    checkEquals(full, engine.offHeapBytes(), "direct memory after filling the freed slots");
+    checkContent(engine, expected, "after filling the freed slots");
+
+    // Sparse slabs are evacuated into the others, and the slabs beyond the pool are dropped
+    for (int key = 0; key < KEYS + KEYS / 2; key++) {
+      if (key % 10 != 0 && expected.remove(key) != null) { engine.remove(key); }
+    }
+    long sparse = engine.offHeapBytes();
+    check(sparse < full, "direct memory after evacuating the sparse slabs: " + sparse + " of " + full);
+    checkContent(engine, expected, "after evacuating the sparse slabs");
+
+    // The slabs kept in the pool are reused before any new one
+    for (int key = KEYS + KEYS / 2; key < 2 * KEYS; key++) {
+      StoreValue v = new StoreValue(value(key, 0), 0);
+      engine.put(key, v);
+      expected.put(key, v);
+    }
+    check(engine.offHeapBytes() <= full, "direct memory after refilling: " + engine.offHeapBytes() + " of " + full);
+    checkContent(engine, expected, "after refilling");
+
+    // A snapshot reads the frozen slabs while the changes go to the overlay, then are written to the slabs
+    StorageEngine.Snapshot snapshot = engine.snapshot();
+    Map<Integer, StoreValue> frozen = new HashMap<>(expected);
+    for (int key = 0; key < 2 * KEYS; key += 7) {
+      if (expected.remove(key) != null) {
+        engine.remove(key);
+      } else {
+        StoreValue v = new StoreValue(value(key, 9), 9);
+        engine.put(key, v);
+        expected.put(key, v);
+      }
+    }
+    Map<Integer, StoreValue> seen = new HashMap<>();
+    snapshot.forEach(seen::put);
+    checkEquals(frozen.size(), seen.size(), "records of the snapshot");
+    check(frozen.keySet().equals(seen.keySet()), "keys of the snapshot");
+    checkContent(engine, expected, "during a snapshot");
+    snapshot.release();
+    checkContent(engine, expected, "after the snapshot");
+
+    Checks.done("OffHeapReuse");
+  }
+}
@@ -0,0 +1,122 @@
+package tests;
+
+import static tests.Checks.check;
+import static tests.Checks.checkEquals;
+
+import java.io.NotSerializableException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.typesafe.config.ConfigFactory;
+
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import system.Node;
+import system.NodeSerializer;
+import system.PendingRequest.ACT;
+import system.StoreValue;
+
+/**
+ * Binary format of the messages: the client messages survive a round trip, Get and Update of version 1 (written
+ * before the consistency level and timeout) are still read with the defaults, and unknown versions are rejected.
+ * Headless, run with: java tests.SerializerVersions
+ */
+public class SerializerVersions {
+
+  static Object roundTrip(NodeSerializer serializer, Object message) throws NotSerializableException {
+    return serializer.fromBinary(serializer.toBinary(message), serializer.manifest(message));
+  }
+
+  static boolean rejects(NodeSerializer serializer, byte[] bytes, String manifest) {
+    try {
+      serializer.fromBinary(bytes, manifest);
+      return false;
+    } catch (NotSerializableException e) {
+      return true;
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    ActorSystem system = ActorSystem.create("serializer-versions", ConfigFactory.load());
+    try {
+      NodeSerializer serializer = new NodeSerializer((ExtendedActorSystem) system);
+
+      Node.Get get = (Node.Get) roundTrip(serializer, new Node.Get(-7, 1L << 40, Node.CONSISTENCY.ALL, 250));
+      checkEquals(-7, get.key, "key of a Get");
+      checkEquals(1L << 40, get.reqId, "id of a Get");
+      checkEquals(Node.CONSISTENCY.ALL, get.consistency, "consistency of a Get");
+      checkEquals(250, get.timeout, "timeout of a Get");
+
+      Node.Update update = (Node.Update) roundTrip(serializer, new Node.Update(12, "v\u00e8", 3, Node.CONSISTENCY.ONE, 0));
+      checkEquals(12, update.key, "key of an Update");
+      checkEquals("v\u00e8", update.value, "value of an Update");
+      checkEquals(Node.CONSISTENCY.ONE, update.consistency, "consistency of an Update");
+      checkEquals(null, ((Node.Update) roundTrip(serializer, new Node.Update(12, null))).value, "null value of an Update");
+
+      Node.Feedback feedback = (Node.Feedback) roundTrip(serializer,
+        new Node.Feedback(5, 9, new StoreValue("x", 4), Node.STATUS.OK, ACT.GET));
+      checkEquals(9, feedback.key, "key of a Feedback");
+      checkEquals("x", feedback.value.getValue(), "value of a Feedback");
+      checkEquals(4, feedback.getVersion(), "version of a Feedback");
+      checkEquals(Node.STATUS.OK, feedback.status, "status of a Feedback");
+      checkEquals(null, ((Node.Feedback) roundTrip(serializer,
+        new Node.Feedback(5, 9, null, Node.STATUS.ERROR, ACT.UPDATE))).value, "value of a failed Feedback");
+
+      int[] keys = { 3, 1000, 1001, 7 };
+      Node.MultiGet multiGet = (Node.MultiGet) roundTrip(serializer, new Node.MultiGet(keys, 8));
+      check(Arrays.equals(keys, multiGet.keys), "keys of a MultiGet: " + Arrays.toString(multiGet.keys));
+
+      Map<Integer, String> values = new HashMap<>();
+      for (int key : keys) { values.put(key, "v" + key); }
+      values.put(-1, null);
+      checkEquals(values, ((Node.MultiUpdate) roundTrip(serializer, new Node.MultiUpdate(values, 8))).values, "values of a MultiUpdate");
+
+      Node.MultiFeedback multiFeedback = (Node.MultiFeedback) roundTrip(serializer, new Node.MultiFeedback(8, ACT.GET, keys,
+        List.of(new StoreValue("a", 1), new StoreValue("b", 2), new StoreValue(null, 3), new StoreValue("d", 0)),
+        new Node.STATUS[] { Node.STATUS.OK, Node.STATUS.OK, Node.STATUS.ERROR, Node.STATUS.OK }));
+      check(Arrays.equals(keys, multiFeedback.keys), "keys of a MultiFeedback");
+      checkEquals("b", multiFeedback.values[1].getValue(), "value of a MultiFeedback");
+      checkEquals(3, multiFeedback.values[2].getVersion(), "version of a MultiFeedback");
+      checkEquals(Node.STATUS.ERROR, multiFeedback.statuses[2], "status of a MultiFeedback");
+
+      Node.Stats stats = (Node.Stats) roundTrip(serializer, new Node.Stats(10, 1, 2, 3, 4, 5, 6));
+      checkEquals(10, stats.idNode, "node of Stats");
+      checkEquals(6L, stats.hedges, "hedges of Stats");
+
+      // Version 1: same fields without the trailing consistency level (one byte) and timeout (0 is a one-byte varint)
+      byte[] v2 = serializer.toBinary(new Node.Get(42, 17));
+      byte[] v1 = Arrays.copyOf(v2, v2.length - 2);
+      v1[0] = 1;
+      get = (Node.Get) serializer.fromBinary(v1, serializer.manifest(get));
+      checkEquals(42, get.key, "key of a version 1 Get");
+      checkEquals(17L, get.reqId, "id of a version 1 Get");
+      checkEquals(Node.CONSISTENCY.DEFAULT, get.consistency, "consistency of a version 1 Get");
+      checkEquals(0, get.timeout, "timeout of a version 1 Get");
+
+      v2 = serializer.toBinary(new Node.Update(42, "old", 18));
+      v1 = Arrays.copyOf(v2, v2.length - 2);
+      v1[0] = 1;
+      update = (Node.Update) serializer.fromBinary(v1, serializer.manifest(update));
+      checkEquals("old", update.value, "value of a version 1 Update");
+      checkEquals(18L, update.reqId, "id of a version 1 Update");
+      checkEquals(Node.CONSISTENCY.DEFAULT, update.consistency, "consistency of a version 1 Update");
+
+      v1 = serializer.toBinary(new Node.Feedback(5, 9, new StoreValue("x", 4), Node.STATUS.OK, ACT.GET));
+      v1[0] = 1;
+      checkEquals("x", ((Node.Feedback) serializer.fromBinary(v1, serializer.manifest(feedback))).value.getValue(),
+        "value of a version 1 Feedback");
+
+      byte[] unknown = serializer.toBinary(new Node.Get(42, 17));
+      unknown[0] = 0;
+      check(rejects(serializer, unknown, serializer.manifest(get)), "version 0 rejected");
+      unknown[0] = 3;
+      check(rejects(serializer, unknown, serializer.manifest(get)), "version 3 rejected");
+      check(rejects(serializer, v2, "?"), "unknown manifest rejected");
+    } finally {
+      system.terminate();
+    }
+    Checks.done("SerializerVersions");
+  }
+}
@@ -0,0 +1,102 @@
+package tests;
+
+import static tests.Checks.check;
+import static tests.Checks.checkEquals;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+import system.StoreValue;
+import system.WriteAheadLog;
+
+/**
+ * Replay of the write-ahead log: records survive a reopen, a torn or corrupted tail is cut without losing the
+ * records before it, and a log whose writer failed refuses further records.
+ * Headless, run with: java tests.WalReplay
+ */
+public class WalReplay {
+
+  static Map<Integer, StoreValue> replay(WriteAheadLog wal) throws IOException {
+    Map<Integer, StoreValue> items = new HashMap<>();
+    wal.replay(new WriteAheadLog.Consumer() {
+      @Override
+      public void onPut(int key, StoreValue value) { items.put(key, value); }
+      @Override
+      public void onRemove(int key) { items.remove(key); }
+    });
+    return items;
+  }
+
+  static void append(Path file, byte[] bytes) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+      channel.write(ByteBuffer.wrap(bytes));
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    Path dir = Checks.tempDir("wal-replay");
+    Path file = dir.resolve("node.wal");
+
+    WriteAheadLog wal = new WriteAheadLog(file, 16, 1, false);
+    for (int key = 0; key < 100; key++) { wal.put(key, new StoreValue("v" + key, key)); }
+    wal.put(7, new StoreValue(null, 8));
+    wal.remove(3);
+    wal.close();
+    long size = Files.size(file);
+
+    wal = new WriteAheadLog(file, 16, 1, false);
+    Map<Integer, StoreValue> items = replay(wal);
+    checkEquals(99, items.size(), "items after a clean replay");
+    checkEquals(null, items.get(3), "removed key");
+    checkEquals(8, items.get(7).getVersion(), "version of a null value");
+    checkEquals(null, items.get(7).getValue(), "null value");
+    checkEquals("v99", items.get(99).getValue(), "last value");
+    checkEquals(0L, wal.getTruncated(), "bytes cut from a clean log");
+    wal.close();
+
+    // Torn tail: a header announcing more bytes than were written
+    append(file, new byte[] { 0, 0, 0, 40, 1, 2, 3, 4, 1, 0, 0 });
+    wal = new WriteAheadLog(file, 16, 1, false);
+    checkEquals(99, replay(wal).size(), "items after a torn tail");
+    checkEquals(11L, wal.getTruncated(), "bytes of torn tail cut");
+    checkEquals(size, Files.size(file), "size of the log after the cut");
+    // The log goes on after the cut
+    wal.put(200, new StoreValue("after", 1));
+    wal.close();
+    wal = new WriteAheadLog(file, 16, 1, false);
+    checkEquals("after", replay(wal).get(200).getValue(), "record appended after the cut");
+    wal.close();
+
+    // Corrupted tail: the checksum of the last record does not match
+    long end = Files.size(file);
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.wrap(new byte[] { 'X' }), end - 1);
+    }
+    wal = new WriteAheadLog(file, 16, 1, false);
+    items = replay(wal);
+    checkEquals(99, items.size(), "items after a corrupted record");
+    checkEquals(null, items.get(200), "corrupted record");
+    check(wal.getTruncated() > 0, "corrupted record cut");
+
+    // A failed rotation (the file is gone) breaks the log: the next record is refused
+    Files.delete(file);
+    wal.rotate();
+    wal.crash(); // Waits for the writer
+    boolean refused = false;
+    try {
+      wal.put(1, new StoreValue("lost", 2));
+    } catch (UncheckedIOException e) {
+      refused = true;
+    }
+    check(refused, "record refused by a failed log");
+
+    Checks.done("WalReplay");
+  }
+}